@@ -0,0 +1,123 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.modules.LocalModuleFinder;
+import org.jboss.modules.ModuleLoadException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures stages 3 to 5 of the analysis over a module repository generated by {@link FixtureGenerator}.
+ * Every invocation starts from a freshly indexed and dependent-linked repository (stages 1 and 2, served from
+ * an index cache), since the later stages modify the index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class AnalysisBenchmark {
+
+    @Param({"200", "600"})
+    public int modules;
+
+    @Param("8")
+    public int depth;
+
+    @Param("6")
+    public int fanOut;
+
+    @Param("20")
+    public int reexportPercent;
+
+    @Param("40")
+    public int classesPerModule;
+
+    private Path workDir;
+    private IndexCache cache;
+    private RootIndex rootIndex;
+    private final Map<String, Counter> cnt = new LinkedHashMap<>();
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        workDir = Files.createTempDirectory("deptool-bench");
+        new FixtureGenerator(modules, depth, fanOut, reexportPercent, classesPerModule, 1L).generate(workDir.resolve("modules"));
+        cache = new IndexCache(workDir.resolve("cache"));
+    }
+
+    @Setup(Level.Invocation)
+    public void index() throws IOException, ModuleLoadException {
+        rootIndex = new RootIndex();
+        final LocalModuleFinder moduleFinder = new LocalModuleFinder(new File[] { workDir.resolve("modules").toFile() });
+        Main.indexModules(rootIndex, moduleFinder, 1, cache, ScanMode.FULL, new Metrics(), false, false, cnt);
+        Main.linkDependents(rootIndex, null, false, false, cnt);
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanUp() throws IOException {
+        Files.walkFileTree(workDir, new SimpleFileVisitor<Path>() {
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            public FileVisitResult postVisitDirectory(final Path dir, final IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Benchmark
+    public void propagatePaths() {
+        Main.propagatePaths(rootIndex, false, cnt);
+    }
+
+    @Benchmark
+    public void analyze(Blackhole blackhole) throws IOException {
+        Main.propagatePaths(rootIndex, false, cnt);
+        Main.linkSupertypes(rootIndex, false, cnt);
+        blackhole.consume(Main.findUnusedDependencies(rootIndex, null, false, cnt));
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.objectweb.asm.ClassReader;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the throughput of class indexing over a corpus of class files, for each
+ * {@link ScanMode}.  The corpus is a JAR file or a directory of class files; by default it is the ASM JAR from the
+ * class path.  The rates of indexed classes and bytes are reported as secondary results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexClassVisitorBenchmark {
+
+    @Param("")
+    public String corpus;
+
+    @Param({"FULL", "FAST", "CONSTANT_POOL"})
+    public String scanMode;
+
+    private byte[][] classes;
+    private ScanMode mode;
+    private long totalBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        mode = ScanMode.valueOf(scanMode);
+        final Path path = corpus.isEmpty() ? defaultCorpus() : Paths.get(corpus);
+        final List<byte[]> list = new ArrayList<>();
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> stream = Files.walk(path)) {
+                for (Path file : (Iterable<Path>) stream::iterator) {
+                    if (file.toString().endsWith(".class")) {
+                        list.add(Files.readAllBytes(file));
+                    }
+                }
+            }
+        } else {
+            try (ZipFile zipFile = new ZipFile(path.toFile())) {
+                final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements()) {
+                    final ZipEntry entry = entries.nextElement();
+                    if (entry.getName().endsWith(".class") && ! entry.getName().endsWith("module-info.class")) {
+                        try (InputStream is = zipFile.getInputStream(entry)) {
+                            list.add(readAll(is));
+                        }
+                    }
+                }
+            }
+        }
+        classes = list.toArray(new byte[list.size()][]);
+        for (byte[] bytes : classes) {
+            totalBytes += bytes.length;
+        }
+    }
+
+    private static Path defaultCorpus() {
+        try {
+            return Paths.get(ClassReader.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot locate default corpus; set the corpus parameter", e);
+        }
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final byte[] buf = new byte[8192];
+        int res;
+        while ((res = is.read(buf)) != -1) {
+            os.write(buf, 0, res);
+        }
+        return os.toByteArray();
+    }
+
+    /**
+     * The classes and bytes indexed, reported by JMH as rates next to the corpus rate.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Indexed {
+        public long classes;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            classes = 0;
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Index the whole corpus into a fresh root index.
+     */
+    @Benchmark
+    public void indexCorpus(Blackhole blackhole, Indexed indexed) {
+        final RootIndex rootIndex = new RootIndex();
+        final ModuleIndex moduleIndex = new ModuleIndex(rootIndex, "corpus");
+        for (byte[] bytes : classes) {
+            final ClassIndex classIndex = new ClassIndex(moduleIndex);
+            mode.scan(bytes, 0, bytes.length, classIndex);
+            moduleIndex.addClassIndex(classIndex);
+        }
+        blackhole.consume(moduleIndex);
+        indexed.classes += classes.length;
+        indexed.bytes += totalBytes;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link RootIndex#intern(String)} and {@link RootIndex#intern(CharSequence, int, int)}.  Lookups follow a
+ * Zipf distribution over a set of class and package names, which approximates the way references in real code
+ * cluster around a few very common types.  Each lookup key is a distinct copy of the name, as it would be when
+ * freshly decoded from a class file; range lookups find the name inside a field descriptor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RootIndexInternBenchmark {
+    private static final int LOOKUPS = 1 << 16;
+
+    @Param({"10000", "100000"})
+    public int distinctNames;
+
+    @Param("1.1")
+    public double skew;
+
+    private String[] names;
+    private String[] lookups;
+    private String[] descriptors;
+    private RootIndex warmIndex;
+    private RootIndex coldIndex;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(17);
+        names = new String[distinctNames];
+        final int packages = Math.max(1, distinctNames / 20);
+        for (int i = 0; i < distinctNames; i ++) {
+            final int pkg = random.nextInt(packages);
+            names[i] = "org/example/p" + (pkg % 37) + "/sub" + pkg + "/Type" + i;
+        }
+        // inverse-CDF sampling of a Zipf distribution
+        final double[] cdf = new double[distinctNames];
+        double sum = 0;
+        for (int i = 0; i < distinctNames; i ++) {
+            sum += 1.0 / Math.pow(i + 1, skew);
+            cdf[i] = sum;
+        }
+        lookups = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i ++) {
+            final double x = random.nextDouble() * sum;
+            int lo = 0, hi = distinctNames - 1;
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (cdf[mid] < x) lo = mid + 1; else hi = mid;
+            }
+            lookups[i] = new String(names[lo].toCharArray());
+        }
+        descriptors = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i ++) {
+            descriptors[i] = "L" + lookups[i] + ";";
+        }
+        warmIndex = new RootIndex();
+        for (String name : names) {
+            warmIndex.intern(name);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void resetCold() {
+        coldIndex = new RootIndex();
+    }
+
+    /**
+     * All lookups hit.
+     */
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void internHits(Blackhole blackhole) {
+        final RootIndex rootIndex = warmIndex;
+        for (String lookup : lookups) {
+            blackhole.consume(rootIndex.intern(lookup));
+        }
+    }
+
+    /**
+     * All lookups hit, finding the name inside a descriptor.
+     */
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void internRangeHits(Blackhole blackhole) {
+        final RootIndex rootIndex = warmIndex;
+        for (String descriptor : descriptors) {
+            blackhole.consume(rootIndex.intern(descriptor, 1, descriptor.length() - 1));
+        }
+    }
+
+    /**
+     * Lookups into a table which fills up during the iteration, as during stage 1.
+     */
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void internFilling(Blackhole blackhole) {
+        final RootIndex rootIndex = coldIndex;
+        for (String lookup : lookups) {
+            blackhole.consume(rootIndex.intern(lookup));
+        }
+    }
+}
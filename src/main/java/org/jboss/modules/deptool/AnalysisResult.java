@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The findings of one {@link Analyzer#analyze()} run.  A result is a snapshot: it does not change when the
+ * analyzer indexes again, and it stays valid for {@link Analyzer#fix(AnalysisResult, java.nio.file.Path...)}.
+ */
+public final class AnalysisResult {
+    private final Map<ModuleIndex, List<DependencyInfo>> unusedDependencyInfos;
+    private final Map<String, List<String>> unusedDependencies;
+    private final List<String> unusedModules;
+    private final Map<String, List<String>> unresolvedDependencies;
+
+    AnalysisResult(final Map<ModuleIndex, List<DependencyInfo>> unusedDependencyInfos, final List<ModuleIndex> unusedModules, final Map<String, List<String>> unresolvedDependencies) {
+        this.unusedDependencyInfos = unusedDependencyInfos;
+        final Map<String, List<String>> unusedDependencies = new LinkedHashMap<>();
+        for (Map.Entry<ModuleIndex, List<DependencyInfo>> entry : unusedDependencyInfos.entrySet()) {
+            final List<String> names = new ArrayList<>(entry.getValue().size());
+            for (DependencyInfo dependency : entry.getValue()) {
+                names.add(dependency.getDependencyModuleIndex().getName());
+            }
+            unusedDependencies.put(entry.getKey().getName(), Collections.unmodifiableList(names));
+        }
+        this.unusedDependencies = Collections.unmodifiableMap(unusedDependencies);
+        final List<String> unusedModuleNames = new ArrayList<>(unusedModules.size());
+        for (ModuleIndex moduleIndex : unusedModules) {
+            unusedModuleNames.add(moduleIndex.getName());
+        }
+        this.unusedModules = Collections.unmodifiableList(unusedModuleNames);
+        this.unresolvedDependencies = Collections.unmodifiableMap(unresolvedDependencies);
+    }
+
+    Map<ModuleIndex, List<DependencyInfo>> getUnusedDependencyInfos() {
+        return unusedDependencyInfos;
+    }
+
+    /**
+     * Get the unused dependencies of every module which has any.
+     *
+     * @return the map of module name to the names of its unused dependencies, in index order (not {@code null})
+     */
+    public Map<String, List<String>> getUnusedDependencies() {
+        return unusedDependencies;
+    }
+
+    /**
+     * Get the unused dependencies of one module.
+     *
+     * @param moduleName the module name
+     * @return the names of the unused dependencies (not {@code null})
+     */
+    public List<String> getUnusedDependencies(final String moduleName) {
+        final List<String> names = unusedDependencies.get(moduleName);
+        return names == null ? Collections.emptyList() : names;
+    }
+
+    /**
+     * Get the modules which nothing depends on and whose name is not found in any string constant.
+     *
+     * @return the unused module names (not {@code null})
+     */
+    public List<String> getUnusedModules() {
+        return unusedModules;
+    }
+
+    /**
+     * Get the non-optional dependencies which do not name any indexed module or alias.
+     *
+     * @return the map of module name to the names of its unresolved dependencies (not {@code null})
+     */
+    public Map<String, List<String>> getUnresolvedDependencies() {
+        return unresolvedDependencies;
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.modules.LocalModuleFinder;
+import org.jboss.modules.ModuleLoadException;
+
+/**
+ * An analysis session over a module repository.  The index is built once by {@link #index()} and kept, so that a
+ * long-lived process can {@link #analyze()} it as often as it likes; call {@link #reindex(Collection)} or
+ * {@link #index()} again to pick up changes on disk.  After a re-index, only the modules affected by the change are
+ * linked and analyzed again.  The steps run on the calling thread (indexing and fixing may additionally use a
+ * pool, see {@link #setThreads(int)}), and an analyzer must not be used by more than one thread at a time.
+ */
+public final class Analyzer {
+    private File[] moduleRoots;
+    private int threads = 1;
+    private Path cachePath;
+    private ScanMode scanMode = ScanMode.FULL;
+    private boolean progress;
+    private boolean warn;
+    private ReportWriter report;
+
+    private final Map<String, Counter> cnt = new LinkedHashMap<>();
+    private Metrics metrics = new Metrics();
+    private RootIndex rootIndex;
+    private LocalModuleFinder moduleFinder;
+    private IndexCache cache;
+    // null until the index is linked
+    private Map<String, List<String>> unresolvedDependencies;
+    // the modules re-indexed since the index was last linked, or null if it has to be linked from scratch
+    private Set<String> changedModuleNames;
+    // the modules which depended on a re-indexed module before, directly or through an alias; null with the above
+    private Set<String> formerDependentNames;
+    // the modules linked again since the last analysis, or null if every module has to be analyzed
+    private Set<ModuleIndex> staleModules;
+    private Map<ModuleIndex, List<DependencyInfo>> unusedDependencies;
+    // null until first asked for after linking
+    private ModuleGraph moduleGraph;
+    private ReachabilityIndex reachabilityIndex;
+
+    /**
+     * Construct a new instance.  Until {@link #setModuleRoots(Path...)} is called, modules are found on the
+     * {@code module.path} system property, like the command line tool does.
+     */
+    public Analyzer() {
+    }
+
+    /**
+     * Set the module repository roots to index.
+     *
+     * @param roots the roots, or {@code null} to use the {@code module.path} system property
+     */
+    public void setModuleRoots(final Path... roots) {
+        if (roots == null) {
+            moduleRoots = null;
+        } else {
+            moduleRoots = new File[roots.length];
+            for (int i = 0; i < roots.length; i++) {
+                moduleRoots[i] = roots[i].toFile();
+            }
+        }
+    }
+
+    /**
+     * Set the number of threads to index and fix with.
+     *
+     * @param threads the thread count, or less than one to use every available processor
+     */
+    public void setThreads(final int threads) {
+        this.threads = threads < 1 ? Runtime.getRuntime().availableProcessors() : threads;
+    }
+
+    /**
+     * Set the directory of the persistent resource root index cache.
+     *
+     * @param cachePath the cache directory, or {@code null} to index without a cache
+     */
+    public void setCachePath(final Path cachePath) {
+        this.cachePath = cachePath;
+    }
+
+    public void setScanMode(final ScanMode scanMode) {
+        this.scanMode = scanMode;
+    }
+
+    /**
+     * Set whether progress counters are printed to standard output while the steps run.
+     */
+    public void setProgress(final boolean progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Set whether warnings are printed to standard error.
+     */
+    public void setWarn(final boolean warn) {
+        this.warn = warn;
+    }
+
+    void setReport(final ReportWriter report) {
+        this.report = report;
+    }
+
+    /**
+     * Get the metrics of the most recent {@link #index()} or {@link #reindex(Collection)} and of the steps since.
+     *
+     * @return the metrics
+     */
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    RootIndex getRootIndex() {
+        return rootIndex;
+    }
+
+    /**
+     * Index every module of the repository (stage 1), replacing any previous index.
+     *
+     * @throws IOException if reading a resource root failed
+     * @throws ModuleLoadException if a module could not be loaded
+     */
+    public void index() throws IOException, ModuleLoadException {
+        final RootIndex rootIndex = new RootIndex();
+        final Metrics metrics = new Metrics();
+        final Metrics.Measurement stage = metrics.startStage("index");
+        final IndexCache cache = cachePath == null ? null : new IndexCache(cachePath);
+        final LocalModuleFinder moduleFinder = moduleRoots == null ? new LocalModuleFinder() : new LocalModuleFinder(moduleRoots);
+        Main.indexModules(rootIndex, moduleFinder, threads, cache, scanMode, metrics, progress, warn, cnt);
+        stage.stop();
+        metrics.addModules(stage, threads > 1);
+        this.rootIndex = rootIndex;
+        this.moduleFinder = moduleFinder;
+        this.cache = cache;
+        this.metrics = metrics;
+        unresolvedDependencies = null;
+        changedModuleNames = null;
+        formerDependentNames = null;
+        staleModules = null;
+        unusedDependencies = null;
+        moduleGraph = null;
+        reachabilityIndex = null;
+    }
+
+    /**
+     * Index some modules again (stage 1), for example because their {@code module.xml} or resource roots changed
+     * on disk.  The next step links the modules again, along with every module depending on them directly or
+     * indirectly; the rest of the index is left as it is.  Modules which no longer exist are removed.  If a module
+     * is not in the index yet, every module is indexed again instead, since string constants naming the new module
+     * would not have been recorded.
+     *
+     * @param moduleNames the names of the modules to index again
+     * @throws IOException if reading a resource root failed
+     * @throws ModuleLoadException if a module could not be loaded
+     * @throws IllegalStateException if nothing has been indexed yet
+     */
+    public void reindex(final Collection<String> moduleNames) throws IOException, ModuleLoadException {
+        final RootIndex rootIndex = getIndexedRootIndex();
+        final List<String> names = new ArrayList<>(moduleNames.size());
+        for (String moduleName : moduleNames) {
+            if (! rootIndex.isStringCandidate(moduleName)) {
+                index();
+                return;
+            }
+            names.add(rootIndex.intern(moduleName));
+        }
+        // mark the index unlinked first, so that a failed re-index is linked again once it is retried
+        if (unresolvedDependencies != null) {
+            unresolvedDependencies = null;
+            changedModuleNames = new HashSet<>();
+            formerDependentNames = new HashSet<>();
+        }
+        if (changedModuleNames != null) {
+            changedModuleNames.addAll(names);
+            // the dependents are still those of the last link, which resolved aliases
+            for (String moduleName : names) {
+                final ModuleIndex moduleIndex = rootIndex.getModule(moduleName);
+                if (moduleIndex != null) {
+                    for (DependentInfo dependentInfo : moduleIndex.getDependents()) {
+                        formerDependentNames.add(dependentInfo.getDependentModuleIndex().getName());
+                    }
+                }
+            }
+        }
+        moduleGraph = null;
+        reachabilityIndex = null;
+        final Metrics metrics = new Metrics();
+        final Metrics.Measurement stage = metrics.startStage("reindex");
+        for (String moduleName : names) {
+            rootIndex.removeModule(moduleName);
+        }
+        Main.indexModules(rootIndex, moduleFinder, names, threads, cache, scanMode, metrics, progress, warn, cnt);
+        rootIndex.rebuildStrings();
+        rootIndex.getPathFilterCache().clear();
+        stage.stop();
+        metrics.addModules(stage, threads > 1);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Link the modules of the index together (stages 2 to 4).  This is done once per index or re-index; calling
+     * it again does nothing.  After a re-index, the dependents of every module are linked again, which is a single
+     * pass over the dependency specifications; the rest is only done for the affected modules.
+     *
+     * @throws IOException if writing the report failed
+     * @throws IllegalStateException if nothing has been indexed yet
+     */
+    public void link() throws IOException {
+        final RootIndex rootIndex = getIndexedRootIndex();
+        if (unresolvedDependencies != null) {
+            return;
+        }
+        final Set<String> changedModuleNames = this.changedModuleNames;
+
+        Metrics.Measurement stage = metrics.startStage("link dependents");
+        if (changedModuleNames != null) {
+            for (ModuleIndex moduleIndex : rootIndex.getModules().values()) {
+                moduleIndex.clearDependents();
+            }
+        }
+        final Map<String, List<String>> unresolvedDependencies = Main.linkDependents(rootIndex, report, progress, warn, cnt);
+        final Set<ModuleIndex> affected;
+        if (changedModuleNames == null) {
+            affected = null;
+        } else {
+            affected = Main.findAffectedModules(rootIndex, changedModuleNames, formerDependentNames);
+            for (ModuleIndex moduleIndex : affected) {
+                moduleIndex.unlink();
+            }
+        }
+        stage.stop();
+
+        stage = metrics.startStage("propagate paths");
+        Main.propagatePaths(rootIndex, affected, progress, cnt);
+        stage.stop();
+
+        stage = metrics.startStage("link supertypes");
+        Main.linkSupertypes(rootIndex, affected == null ? rootIndex.getModules().values() : affected, progress, cnt);
+        stage.stop();
+
+        this.unresolvedDependencies = unresolvedDependencies;
+        this.changedModuleNames = null;
+        formerDependentNames = null;
+        if (affected == null) {
+            staleModules = null;
+        } else if (staleModules != null) {
+            staleModules.addAll(affected);
+        }
+    }
+
+    /**
+     * Find the unused dependencies and modules of the index (stages 5 and 6), linking it first if needed.  The
+     * linked index is not changed, so this may be called any number of times.
+     *
+     * @return the findings (not {@code null})
+     * @throws IOException if writing the report failed
+     * @throws IllegalStateException if nothing has been indexed yet
+     */
+    public AnalysisResult analyze() throws IOException {
+        link();
+
+        Metrics.Measurement stage = metrics.startStage("find unused dependencies");
+        final Map<ModuleIndex, List<DependencyInfo>> unusedDeps = Main.findUnusedDependencies(rootIndex, staleModules, unusedDependencies, report, progress, cnt);
+        stage.stop();
+        unusedDependencies = unusedDeps;
+        staleModules = new HashSet<>();
+        Counter.getCounter(cnt, "print").set(0);
+        Main.showProgress(progress, cnt);
+        if (progress) System.out.println();
+
+        cnt.clear();
+        stage = metrics.startStage("find unused modules");
+        final List<ModuleIndex> unusedModules = Main.findUnusedModules(rootIndex);
+        if (report != null) {
+            for (ModuleIndex moduleIndex : unusedModules) {
+                report.unusedModule(moduleIndex.getName());
+            }
+            report.unusedModuleCount(unusedModules.size());
+            report.flush();
+        }
+        stage.stop();
+
+        return new AnalysisResult(unusedDeps, unusedModules, unresolvedDependencies);
+    }
+
+    /**
+     * Get the reachability index of the module graph, linking the index first if needed.  The reachability index
+     * is built on first use after each index or re-index.
+     *
+     * @return the reachability index (not {@code null})
+     * @throws IOException if writing the report failed
+     * @throws IllegalStateException if nothing has been indexed yet
+     */
+    public ReachabilityIndex getReachabilityIndex() throws IOException {
+        final ModuleGraph moduleGraph = getModuleGraph();
+        ReachabilityIndex reachabilityIndex = this.reachabilityIndex;
+        if (reachabilityIndex == null) {
+            final Metrics.Measurement stage = metrics.startStage("reachability");
+            reachabilityIndex = this.reachabilityIndex = new ReachabilityIndex(moduleGraph);
+            stage.stop();
+        }
+        return reachabilityIndex;
+    }
+
+    /**
+     * Find the dependency cycles between the modules, linking the index first if needed.  This takes time linear
+     * in the number of modules and dependencies.
+     *
+     * @return the cycles, in reverse topological order (not {@code null})
+     * @throws IOException if writing the report failed
+     * @throws IllegalStateException if nothing has been indexed yet
+     */
+    public List<ModuleCycle> findCycles() throws IOException {
+        final ModuleGraph moduleGraph = getModuleGraph();
+        final Metrics.Measurement stage = metrics.startStage("find cycles");
+        final List<ModuleCycle> cycles = Main.findCycles(moduleGraph);
+        stage.stop();
+        return cycles;
+    }
+
+    private ModuleGraph getModuleGraph() throws IOException {
+        link();
+        ModuleGraph moduleGraph = this.moduleGraph;
+        if (moduleGraph == null) {
+            final Metrics.Measurement stage = metrics.startStage("module graph");
+            moduleGraph = this.moduleGraph = new ModuleGraph(rootIndex);
+            stage.stop();
+        }
+        return moduleGraph;
+    }
+
+    /**
+     * Remove the unused dependencies of a result from the {@code module.xml} files of the modules.  Dependencies
+     * which are preceded by a {@code <!-- keep -->} comment are left alone.  Each descriptor is replaced atomically,
+     * and descriptors are edited in parallel when more than one thread is configured.
+     *
+     * @param result the findings to apply
+     * @param fixPaths the module repository roots holding the {@code module.xml} files to edit
+     * @return the outcome of the fix (not {@code null})
+     * @throws IOException if the fix roots could not be searched
+     */
+    public FixResult fix(final AnalysisResult result, final Path... fixPaths) throws IOException {
+        final Metrics.Measurement stage = metrics.startStage("fix");
+        final FixResult fixResult = Main.fixModules(result.getUnusedDependencyInfos(), fixPaths, null, threads, progress, warn, cnt);
+        stage.stop();
+        return fixResult;
+    }
+
+    /**
+     * Preview {@link #fix(AnalysisResult, Path...)} without changing anything: write the edits it would make as a
+     * unified diff, with paths relative to the fix root of each descriptor, which can be applied later with
+     * {@code patch -p1} or {@code git apply} from that root.
+     *
+     * @param result the findings to apply
+     * @param patch the writer to write the diff to (not closed)
+     * @param fixPaths the module repository roots holding the {@code module.xml} files to edit
+     * @return the outcome the fix would have (not {@code null})
+     * @throws IOException if the fix roots could not be searched or the diff could not be written
+     */
+    public FixResult diff(final AnalysisResult result, final Writer patch, final Path... fixPaths) throws IOException {
+        final Metrics.Measurement stage = metrics.startStage("diff");
+        final FixResult fixResult = Main.fixModules(result.getUnusedDependencyInfos(), fixPaths, patch, threads, progress, warn, cnt);
+        stage.stop();
+        return fixResult;
+    }
+
+    /**
+     * Get the names of the indexed modules.
+     *
+     * @return the module names (not {@code null})
+     * @throws IllegalStateException if nothing has been indexed yet
+     */
+    public Set<String> getModuleNames() {
+        return Collections.unmodifiableSet(getIndexedRootIndex().getModules().keySet());
+    }
+
+    private RootIndex getIndexedRootIndex() {
+        final RootIndex rootIndex = this.rootIndex;
+        if (rootIndex == null) {
+            throw new IllegalStateException("No modules have been indexed");
+        }
+        return rootIndex;
+    }
+}
@@ -18,24 +18,31 @@
 
 package org.jboss.modules.deptool;
 
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  */
 final class ClassIndex {
+    private static final int[] NO_REFS = new int[0];
+
     private final ModuleIndex moduleIndex;
     private String name;
-    private final Map<String, Counter> memberClassRefs = new HashMap<>();
-    private final Map<String, Counter> memberPackageRefs = new HashMap<>();
-    private final Map<String, Counter> otherClassRefs = new HashMap<>();
-    private final Map<String, Counter> otherPackageRefs = new HashMap<>();
+    // class IDs from the root index; package references are implied by the package of each class
+    private final IntCounts memberClassRefs = new IntCounts();
+    private final IntCounts otherClassRefs = new IntCounts();
     private String superClassName;
     private String[] interfaceNames;
     private ClassIndex superClassIndex;
     private final Map<String, ClassIndex> interfaceClassIndexes = new LinkedHashMap<>();
+    private Set<String> strings;
+    private int[] inheritedMemberClassRefs;
+    private int[] transitiveMemberClassRefs;
+    private boolean inheriting;
 
     public ClassIndex(final ModuleIndex moduleIndex) {
         this.moduleIndex = moduleIndex;
@@ -50,23 +57,48 @@ final class ClassIndex {
     }
 
     void addOtherClassRef(String className) {
-        addClassRef(className, otherClassRefs, otherPackageRefs);
+        addClassRef(className, 1, otherClassRefs);
+    }
+
+    void addOtherClassRef(String className, int count) {
+        addClassRef(className, count, otherClassRefs);
     }
 
     void addMemberClassRef(String className) {
-        addClassRef(className, memberClassRefs, memberPackageRefs);
+        addClassRef(className, 1, memberClassRefs);
+    }
+
+    void addMemberClassRef(String className, int count) {
+        addClassRef(className, count, memberClassRefs);
+    }
+
+    void addOtherClassRef(String source, int start, int end) {
+        otherClassRefs.add(moduleIndex.getRootIndex().getClassId(source, start, end), 1);
     }
 
-    private void addClassRef(String className, Map<String, Counter> classRefs, Map<String, Counter> packageRefs) {
-        final RootIndex rootIndex = moduleIndex.getRootIndex();
-        className = rootIndex.intern(className.replace('.', '/'));
-        final int idx = className.lastIndexOf('/');
-        if (idx != -1) {
-            String packageName = rootIndex.intern(className.substring(0, idx));
-            Counter.getCounter(packageRefs, packageName).getAndIncrement();
+    void addMemberClassRef(String source, int start, int end) {
+        memberClassRefs.add(moduleIndex.getRootIndex().getClassId(source, start, end), 1);
+    }
+
+    private void addClassRef(String className, int count, IntCounts classRefs) {
+        classRefs.add(moduleIndex.getRootIndex().getClassId(className), count);
+    }
+
+    void addString(final String str) {
+        Set<String> strings = this.strings;
+        if (strings == null) {
+            strings = this.strings = new LinkedHashSet<>();
         }
-        Counter.getCounter(classRefs, className).getAndIncrement();
-        moduleIndex.addClassRef(className);
+        strings.add(str);
+    }
+
+    Set<String> getStrings() {
+        final Set<String> strings = this.strings;
+        return strings == null ? Collections.emptySet() : strings;
+    }
+
+    void clearStrings() {
+        strings = null;
     }
 
     ClassIndex getSuperClassIndex() {
@@ -105,7 +137,92 @@ final class ClassIndex {
         interfaceClassIndexes.put(interfaceInfo.getName(), interfaceInfo);
     }
 
-    Collection<String> getMemberClassRefs() {
-        return memberClassRefs.keySet();
+    /**
+     * Discard the supertype links of this class and everything computed from them.
+     */
+    void unlink() {
+        superClassIndex = null;
+        interfaceClassIndexes.clear();
+        inheritedMemberClassRefs = null;
+        transitiveMemberClassRefs = null;
+    }
+
+    /**
+     * Get the member class references of every supertype of this class, transitively.  The array is computed once,
+     * after the supertypes have been linked.
+     *
+     * @return the sorted IDs of the inherited member class references (not {@code null}, must not be modified)
+     */
+    int[] getInheritedMemberClassRefs() {
+        int[] inherited = inheritedMemberClassRefs;
+        if (inherited != null) {
+            return inherited;
+        }
+        final ClassIndex superClassIndex = this.superClassIndex;
+        inherited = superClassIndex == null ? NO_REFS : superClassIndex.getTransitiveMemberClassRefs();
+        for (ClassIndex interfaceIndex : interfaceClassIndexes.values()) {
+            inherited = union(inherited, interfaceIndex.getTransitiveMemberClassRefs());
+        }
+        return inheritedMemberClassRefs = inherited;
+    }
+
+    /**
+     * Get the member class references of this class and of every supertype of this class, transitively.  The
+     * array is computed once, after the supertypes have been linked, and then shared with subtypes, so each class
+     * in the graph is only ever walked once.
+     *
+     * @return the sorted IDs of the member class references (not {@code null}, must not be modified)
+     */
+    private int[] getTransitiveMemberClassRefs() {
+        int[] transitive = transitiveMemberClassRefs;
+        if (transitive != null) {
+            return transitive;
+        }
+        if (inheriting) {
+            // a cyclic class graph is broken (duplicate class names across modules); do not loop forever
+            return NO_REFS;
+        }
+        inheriting = true;
+        try {
+            final int[] inherited = getInheritedMemberClassRefs();
+            final int[] own = memberClassRefs.keys();
+            final int[] merged = union(inherited, own);
+            // share the supertype's array when nothing is added, which is common for deep single-inheritance chains
+            return transitiveMemberClassRefs = merged.length == inherited.length ? inherited : merged;
+        } finally {
+            inheriting = false;
+        }
+    }
+
+    private static int[] union(final int[] a, final int[] b) {
+        if (b.length == 0) return a;
+        if (a.length == 0) return b;
+        final int[] result = new int[a.length + b.length];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length && j < b.length) {
+            final int x = a[i], y = b[j];
+            if (x < y) {
+                result[k++] = x;
+                i++;
+            } else if (y < x) {
+                result[k++] = y;
+                j++;
+            } else {
+                result[k++] = x;
+                i++;
+                j++;
+            }
+        }
+        while (i < a.length) result[k++] = a[i++];
+        while (j < b.length) result[k++] = b[j++];
+        return k == result.length ? result : Arrays.copyOf(result, k);
+    }
+
+    IntCounts getMemberClassRefCounts() {
+        return memberClassRefs;
+    }
+
+    IntCounts getOtherClassRefCounts() {
+        return otherClassRefs;
     }
 }
@@ -0,0 +1,346 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.nio.ByteBuffer;
+
+import org.objectweb.asm.Opcodes;
+
+/**
+ * A class file scanner which populates a {@link ClassIndex} straight from the raw bytes, without going through
+ * the ASM visitor pipeline.  Every type named by an instruction is also named by the constant pool, so instead
+ * of decoding method bodies this makes one linear pass over the pool and then walks only the field and method
+ * headers (for the member/other classification) and the few attributes which carry descriptors outside of the
+ * pool: annotations, type annotations, annotation defaults and local variable tables.
+ * <p>
+ * The result is a superset of what {@link Main.IndexClassVisitor} finds: every {@code Class} entry is recorded,
+ * including those only used by {@code InnerClasses}, {@code EnclosingMethod} or bootstrap method arguments, and
+ * string constants of {@code ConstantValue} attributes are recorded along with those loaded by {@code ldc}.
+ */
+final class ConstantPoolScanner {
+    private static final int CONSTANT_Utf8 = 1;
+    private static final int CONSTANT_Integer = 3;
+    private static final int CONSTANT_Float = 4;
+    private static final int CONSTANT_Long = 5;
+    private static final int CONSTANT_Double = 6;
+    private static final int CONSTANT_Class = 7;
+    private static final int CONSTANT_String = 8;
+    private static final int CONSTANT_Fieldref = 9;
+    private static final int CONSTANT_Methodref = 10;
+    private static final int CONSTANT_InterfaceMethodref = 11;
+    private static final int CONSTANT_NameAndType = 12;
+    private static final int CONSTANT_MethodHandle = 15;
+    private static final int CONSTANT_MethodType = 16;
+    private static final int CONSTANT_Dynamic = 17;
+    private static final int CONSTANT_InvokeDynamic = 18;
+    private static final int CONSTANT_Module = 19;
+    private static final int CONSTANT_Package = 20;
+
+    private final ByteBuffer buf;
+    private final ClassIndex classIndex;
+    private int[] offsets;
+    private byte[] tags;
+    private String[] utf8;
+    private char[] chars = new char[64];
+
+    private ConstantPoolScanner(final ByteBuffer buf, final ClassIndex classIndex) {
+        this.buf = buf;
+        this.classIndex = classIndex;
+    }
+
+    /**
+     * Scan one class file.
+     *
+     * @param classFile the class file bytes, from the buffer's position to its limit (the position is not changed)
+     * @param classIndex the class index to populate
+     * @throws IllegalArgumentException if the bytes are not a class file
+     */
+    static void scan(final ByteBuffer classFile, final ClassIndex classIndex) {
+        new ConstantPoolScanner(classFile.slice(), classIndex).scan();
+    }
+
+    private void scan() {
+        if (buf.getInt(0) != 0xCAFEBABE) {
+            throw new IllegalArgumentException("Not a class file");
+        }
+        int pos = readConstantPool(8);
+        final RootIndex rootIndex = classIndex.getModuleIndex().getRootIndex();
+        final int thisClass = u2(pos + 2);
+        classIndex.setName(classNameAt(thisClass));
+        final int superClass = u2(pos + 4);
+        if (superClass != 0) {
+            final String superName = classNameAt(superClass);
+            classIndex.setSuperClassName(rootIndex.intern(superName));
+            classIndex.addMemberClassRef(superName);
+        }
+        final int interfaceCount = u2(pos + 6);
+        pos += 8;
+        final String[] interfaceNames = new String[interfaceCount];
+        for (int i = 0; i < interfaceCount; i++) {
+            final String interfaceName = classNameAt(u2(pos));
+            classIndex.addMemberClassRef(interfaceName);
+            interfaceNames[i] = rootIndex.intern(interfaceName);
+            pos += 2;
+        }
+        classIndex.setInterfaceNames(interfaceNames);
+        scanConstantPool();
+        // fields
+        int count = u2(pos);
+        pos += 2;
+        for (int i = 0; i < count; i++) {
+            final int access = u2(pos);
+            final String desc = utf8At(u2(pos + 4));
+            if ((access & (Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED)) != 0) {
+                DescriptorScanner.addMemberReferences(classIndex, desc);
+            } else {
+                DescriptorScanner.addOtherReferences(classIndex, desc);
+            }
+            pos = scanAttributes(pos + 6);
+        }
+        // methods
+        count = u2(pos);
+        pos += 2;
+        for (int i = 0; i < count; i++) {
+            final int access = u2(pos);
+            final String desc = utf8At(u2(pos + 4));
+            if ((access & (Opcodes.ACC_STATIC | Opcodes.ACC_PRIVATE)) == 0) {
+                DescriptorScanner.addOtherReferences(classIndex, desc);
+            } else {
+                DescriptorScanner.addMemberReferences(classIndex, desc);
+            }
+            pos = scanAttributes(pos + 6);
+        }
+        scanAttributes(pos);
+    }
+
+    private int readConstantPool(int pos) {
+        final int count = u2(pos);
+        pos += 2;
+        offsets = new int[count];
+        tags = new byte[count];
+        utf8 = new String[count];
+        for (int i = 1; i < count; i++) {
+            final int tag = buf.get(pos);
+            tags[i] = (byte) tag;
+            offsets[i] = pos + 1;
+            switch (tag) {
+                case CONSTANT_Utf8: pos += 3 + u2(pos + 1); break;
+                case CONSTANT_Class:
+                case CONSTANT_String:
+                case CONSTANT_MethodType:
+                case CONSTANT_Module:
+                case CONSTANT_Package: pos += 3; break;
+                case CONSTANT_MethodHandle: pos += 4; break;
+                case CONSTANT_Integer:
+                case CONSTANT_Float:
+                case CONSTANT_Fieldref:
+                case CONSTANT_Methodref:
+                case CONSTANT_InterfaceMethodref:
+                case CONSTANT_NameAndType:
+                case CONSTANT_Dynamic:
+                case CONSTANT_InvokeDynamic: pos += 5; break;
+                case CONSTANT_Long:
+                case CONSTANT_Double: pos += 9; i++; break;
+                default: throw new IllegalArgumentException("Unknown constant pool tag " + tag);
+            }
+        }
+        return pos;
+    }
+
+    private void scanConstantPool() {
+        final byte[] tags = this.tags;
+        for (int i = 1; i < tags.length; i++) {
+            final int offset = offsets[i];
+            switch (tags[i]) {
+                case CONSTANT_Class: {
+                    DescriptorScanner.addOtherTypeReference(classIndex, utf8At(u2(offset)));
+                    break;
+                }
+                case CONSTANT_String: {
+                    classIndex.addString(utf8At(u2(offset)));
+                    break;
+                }
+                case CONSTANT_MethodType: {
+                    DescriptorScanner.addOtherReferences(classIndex, utf8At(u2(offset)));
+                    break;
+                }
+                case CONSTANT_Methodref:
+                case CONSTANT_InterfaceMethodref: {
+                    DescriptorScanner.addMemberReferences(classIndex, nameAndTypeDescriptorAt(u2(offset + 2)));
+                    break;
+                }
+                case CONSTANT_Fieldref:
+                case CONSTANT_Dynamic:
+                case CONSTANT_InvokeDynamic: {
+                    DescriptorScanner.addOtherReferences(classIndex, nameAndTypeDescriptorAt(u2(offset + 2)));
+                    break;
+                }
+            }
+        }
+    }
+
+    private int scanAttributes(int pos) {
+        final int count = u2(pos);
+        pos += 2;
+        for (int i = 0; i < count; i++) {
+            final String name = utf8At(u2(pos));
+            final int length = buf.getInt(pos + 2);
+            pos += 6;
+            switch (name) {
+                case "RuntimeVisibleAnnotations":
+                case "RuntimeInvisibleAnnotations": {
+                    int p = pos + 2;
+                    for (int j = u2(pos); j > 0; j--) {
+                        p = scanAnnotation(p);
+                    }
+                    break;
+                }
+                case "RuntimeVisibleParameterAnnotations":
+                case "RuntimeInvisibleParameterAnnotations": {
+                    int p = pos + 1;
+                    for (int j = buf.get(pos) & 0xff; j > 0; j--) {
+                        int k = u2(p);
+                        p += 2;
+                        for (; k > 0; k--) {
+                            p = scanAnnotation(p);
+                        }
+                    }
+                    break;
+                }
+                case "RuntimeVisibleTypeAnnotations":
+                case "RuntimeInvisibleTypeAnnotations": {
+                    int p = pos + 2;
+                    for (int j = u2(pos); j > 0; j--) {
+                        p = scanAnnotation(skipTypeAnnotationTarget(p));
+                    }
+                    break;
+                }
+                case "AnnotationDefault": {
+                    scanElementValue(pos);
+                    break;
+                }
+                case "Code": {
+                    final int codeLength = buf.getInt(pos + 4);
+                    final int exceptionTableLength = u2(pos + 8 + codeLength);
+                    // catch types are Class entries and were already seen in the constant pool
+                    scanAttributes(pos + 10 + codeLength + exceptionTableLength * 8);
+                    break;
+                }
+                case "LocalVariableTable": {
+                    int p = pos + 2;
+                    for (int j = u2(pos); j > 0; j--) {
+                        DescriptorScanner.addOtherReferences(classIndex, utf8At(u2(p + 6)));
+                        p += 10;
+                    }
+                    break;
+                }
+            }
+            pos += length;
+        }
+        return pos;
+    }
+
+    private int scanAnnotation(int pos) {
+        DescriptorScanner.addOtherReferences(classIndex, utf8At(u2(pos)));
+        final int count = u2(pos + 2);
+        pos += 4;
+        for (int i = 0; i < count; i++) {
+            pos = scanElementValue(pos + 2);
+        }
+        return pos;
+    }
+
+    private int skipTypeAnnotationTarget(int pos) {
+        final int targetType = buf.get(pos) & 0xff;
+        pos++;
+        switch (targetType) {
+            case 0x13: case 0x14: case 0x15: break;
+            case 0x00: case 0x01: case 0x16: pos += 1; break;
+            case 0x10: case 0x11: case 0x12: case 0x17: case 0x42:
+            case 0x43: case 0x44: case 0x45: case 0x46: pos += 2; break;
+            case 0x47: case 0x48: case 0x49: case 0x4A: case 0x4B: pos += 3; break;
+            case 0x40: case 0x41: pos += 2 + u2(pos) * 6; break;
+            default: throw new IllegalArgumentException("Unknown type annotation target " + targetType);
+        }
+        // type_path
+        return pos + 1 + (buf.get(pos) & 0xff) * 2;
+    }
+
+    private int scanElementValue(int pos) {
+        final int tag = buf.get(pos);
+        pos++;
+        switch (tag) {
+            case 'e': return pos + 4;
+            case 'c': {
+                DescriptorScanner.addOtherReferences(classIndex, utf8At(u2(pos)));
+                return pos + 2;
+            }
+            case '@': return scanAnnotation(pos);
+            case '[': {
+                final int count = u2(pos);
+                pos += 2;
+                for (int i = 0; i < count; i++) {
+                    pos = scanElementValue(pos);
+                }
+                return pos;
+            }
+            default: return pos + 2;
+        }
+    }
+
+    private String classNameAt(final int index) {
+        return utf8At(u2(offsets[index]));
+    }
+
+    private String nameAndTypeDescriptorAt(final int index) {
+        return utf8At(u2(offsets[index] + 2));
+    }
+
+    private String utf8At(final int index) {
+        final String cached = utf8[index];
+        if (cached != null) {
+            return cached;
+        }
+        final int offset = offsets[index];
+        final int length = u2(offset);
+        char[] chars = this.chars;
+        if (chars.length < length) {
+            chars = this.chars = new char[length];
+        }
+        // modified UTF-8: at most one char per byte
+        int pos = offset + 2;
+        final int end = pos + length;
+        int n = 0;
+        while (pos < end) {
+            final int a = buf.get(pos++) & 0xff;
+            if (a < 0x80) {
+                chars[n++] = (char) a;
+            } else if (a < 0xe0) {
+                chars[n++] = (char) ((a & 0x1f) << 6 | buf.get(pos++) & 0x3f);
+            } else {
+                chars[n++] = (char) ((a & 0x0f) << 12 | (buf.get(pos++) & 0x3f) << 6 | buf.get(pos++) & 0x3f);
+            }
+        }
+        return utf8[index] = new String(chars, 0, n);
+    }
+
+    private int u2(final int pos) {
+        return buf.getShort(pos) & 0xffff;
+    }
+}
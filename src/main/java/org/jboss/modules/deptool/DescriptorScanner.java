@@ -0,0 +1,84 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+/**
+ * Walks field and method descriptors in place, handing the internal name of each class they mention to the
+ * class index as a range of the descriptor string.  No {@code Type} objects or substrings are created, so
+ * names which are already in the symbol table cost nothing but the lookup.
+ */
+final class DescriptorScanner {
+
+    private DescriptorScanner() {
+    }
+
+    /**
+     * Record every class named by a field or method descriptor as an other class reference.
+     *
+     * @param classIndex the class index
+     * @param descriptor the descriptor
+     */
+    static void addOtherReferences(final ClassIndex classIndex, final String descriptor) {
+        scan(classIndex, descriptor, false);
+    }
+
+    /**
+     * Record every class named by a field or method descriptor as a member class reference.
+     *
+     * @param classIndex the class index
+     * @param descriptor the descriptor
+     */
+    static void addMemberReferences(final ClassIndex classIndex, final String descriptor) {
+        scan(classIndex, descriptor, true);
+    }
+
+    /**
+     * Record the class named by an internal name as an other class reference.  Array types, which are given as
+     * descriptors wherever an internal name is expected, record their element class.
+     *
+     * @param classIndex the class index
+     * @param internalName the internal name or array descriptor
+     */
+    static void addOtherTypeReference(final ClassIndex classIndex, final String internalName) {
+        if (internalName.charAt(0) == '[') {
+            scan(classIndex, internalName, false);
+        } else {
+            classIndex.addOtherClassRef(internalName);
+        }
+    }
+
+    private static void scan(final ClassIndex classIndex, final String descriptor, final boolean member) {
+        final int length = descriptor.length();
+        int i = 0;
+        while (i < length) {
+            if (descriptor.charAt(i++) == 'L') {
+                final int end = descriptor.indexOf(';', i);
+                if (end == -1) {
+                    throw new IllegalArgumentException("Invalid descriptor " + descriptor);
+                }
+                if (member) {
+                    classIndex.addMemberClassRef(descriptor, i, end);
+                } else {
+                    classIndex.addOtherClassRef(descriptor, i, end);
+                }
+                i = end + 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of one {@link Analyzer#fix(AnalysisResult, java.nio.file.Path...)} run, or of a dry run with
+ * {@link Analyzer#diff(AnalysisResult, java.io.Writer, java.nio.file.Path...)}, in which case nothing was actually
+ * rewritten or removed.
+ */
+public final class FixResult {
+    private final List<String> rewrittenModules;
+    private final List<String> missingModules;
+    private final List<String> failedModules;
+    private final int removedDependencyCount;
+    private final int keptDependencyCount;
+    private final boolean dryRun;
+
+    FixResult(final List<String> rewrittenModules, final List<String> missingModules, final List<String> failedModules, final int removedDependencyCount, final int keptDependencyCount, final boolean dryRun) {
+        this.rewrittenModules = Collections.unmodifiableList(rewrittenModules);
+        this.missingModules = Collections.unmodifiableList(missingModules);
+        this.failedModules = Collections.unmodifiableList(failedModules);
+        this.removedDependencyCount = removedDependencyCount;
+        this.keptDependencyCount = keptDependencyCount;
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * Get the modules whose {@code module.xml} was rewritten.
+     *
+     * @return the module names, in index order (not {@code null})
+     */
+    public List<String> getRewrittenModules() {
+        return rewrittenModules;
+    }
+
+    /**
+     * Get the modules with unused dependencies for which no {@code module.xml} was found under the fix roots.
+     *
+     * @return the module names, in index order (not {@code null})
+     */
+    public List<String> getMissingModules() {
+        return missingModules;
+    }
+
+    /**
+     * Get the modules whose {@code module.xml} could not be read or written.  These descriptors are unchanged.
+     *
+     * @return the module names, in index order (not {@code null})
+     */
+    public List<String> getFailedModules() {
+        return failedModules;
+    }
+
+    /**
+     * Get the number of dependencies removed.
+     *
+     * @return the number of dependencies removed
+     */
+    public int getRemovedDependencyCount() {
+        return removedDependencyCount;
+    }
+
+    /**
+     * Get the number of unused dependencies which were left alone because of a {@code <!-- keep -->} comment.
+     *
+     * @return the number of dependencies kept
+     */
+    public int getKeptDependencyCount() {
+        return keptDependencyCount;
+    }
+
+    /**
+     * Determine whether this is the outcome of a dry run.
+     *
+     * @return {@code true} if no descriptor was actually changed
+     */
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    /**
+     * Get a one-line summary of the fix.
+     *
+     * @return the summary
+     */
+    public String toString() {
+        return String.format("%s %d module descriptors: %s %d dependencies, kept %d; %d descriptors not found, %d failed",
+            dryRun ? "Would rewrite" : "Rewrote", Integer.valueOf(rewrittenModules.size()), dryRun ? "would remove" : "removed", Integer.valueOf(removedDependencyCount), Integer.valueOf(keptDependencyCount),
+            Integer.valueOf(missingModules.size()), Integer.valueOf(failedModules.size()));
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.modules.ResourceLoader;
+
+/**
+ * A persistent cache of resource root indexes.  Each resource root of each module is stored in its own file,
+ * along with a fingerprint of the root computed from the size and modification time of its file(s).  A root
+ * is only re-indexed when its fingerprint no longer matches.
+ */
+final class IndexCache {
+    private static final int MAGIC = 0x44544958; // DTIX
+    private static final int VERSION = 1;
+
+    private final Path directory;
+
+    IndexCache(final Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Get the cache slot for the given resource root.
+     *
+     * @param moduleName the name of the module owning the resource root
+     * @param loader the resource loader of the root
+     * @param scanMode the scan mode the root is indexed with
+     * @return the slot, or {@code null} if the root is not backed by the local file system and cannot be cached
+     * @throws IOException if the root could not be fingerprinted
+     */
+    Slot getSlot(final String moduleName, final ResourceLoader loader, final ScanMode scanMode) throws IOException {
+        final Path rootPath = ResourceRootIndexTask.getLocalPath(loader);
+        if (rootPath == null) {
+            return null;
+        }
+        final long fingerprint;
+        try {
+            fingerprint = fingerprint(rootPath);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        final String key = moduleName + '\0' + loader.getRootName() + '\0' + rootPath + '\0' + scanMode;
+        return new Slot(directory.resolve(hexDigest(key) + ".idx"), key, fingerprint);
+    }
+
+    private static long fingerprint(final Path rootPath) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(rootPath, BasicFileAttributes.class);
+        if (! attributes.isDirectory()) {
+            return mix(attributes.size(), attributes.lastModifiedTime().toMillis());
+        }
+        // combine the entries commutatively so that the walk order does not matter
+        final long[] state = new long[2];
+        Files.walkFileTree(rootPath, new SimpleFileVisitor<Path>() {
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    final String relative = rootPath.relativize(file).toString();
+                    state[0] ++;
+                    state[1] += mix(relative.hashCode(), mix(attrs.size(), attrs.lastModifiedTime().toMillis()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return mix(state[0], state[1]);
+    }
+
+    private static long mix(long a, long b) {
+        long h = a * 0x9E3779B97F4A7C15L + b;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static String hexDigest(final String key) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final byte[] bytes = digest.digest(key.getBytes(StandardCharsets.UTF_8));
+        final StringBuilder b = new StringBuilder(bytes.length << 1);
+        for (byte x : bytes) {
+            b.append(Character.forDigit((x >> 4) & 0xf, 16)).append(Character.forDigit(x & 0xf, 16));
+        }
+        return b.toString();
+    }
+
+    static final class Slot {
+        private final Path path;
+        private final String key;
+        private final long fingerprint;
+
+        Slot(final Path path, final String key, final long fingerprint) {
+            this.path = path;
+            this.key = key;
+            this.fingerprint = fingerprint;
+        }
+
+        /**
+         * Load the cached index of the resource root.
+         *
+         * @param moduleIndex the module the classes belong to
+         * @return the cached index, or {@code null} if it is absent, stale or unreadable
+         */
+        ResourceRootIndex load(final ModuleIndex moduleIndex) {
+            try (InputStream is = Files.newInputStream(path)) {
+                final DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+                if (in.readInt() != MAGIC || in.readInt() != VERSION || ! key.equals(in.readUTF()) || in.readLong() != fingerprint) {
+                    return null;
+                }
+                return read(in, moduleIndex);
+            } catch (NoSuchFileException e) {
+                return null;
+            } catch (IOException | RuntimeException e) {
+                // a damaged body may also show up as a bad string table index
+                System.err.println("Ignoring unreadable index cache file " + path + ": " + e);
+                return null;
+            }
+        }
+
+        /**
+         * Store the index of the resource root, replacing the cache file atomically.
+         *
+         * @param resourceRootIndex the index to store
+         */
+        void store(final RootIndex rootIndex, final ResourceRootIndex resourceRootIndex) {
+            Path tmp = null;
+            try {
+                // a unique name, as other processes may share the cache directory
+                tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+                try (OutputStream os = Files.newOutputStream(tmp)) {
+                    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeUTF(key);
+                    out.writeLong(fingerprint);
+                    write(out, rootIndex, resourceRootIndex);
+                    out.flush();
+                }
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.err.println("Failed to write index cache file " + path + ": " + e);
+                if (tmp != null) {
+                    try {
+                        Files.deleteIfExists(tmp);
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+    }
+
+    // format: string table, service files, service references, then per class the name, super class,
+    // interfaces, member and other class references with counts, and LDC strings; all as var-ints
+
+    static void write(final DataOutputStream out, final RootIndex rootIndex, final ResourceRootIndex resourceRootIndex) throws IOException {
+        final Map<String, Integer> strings = new LinkedHashMap<>();
+        final List<String> serviceReferences = resourceRootIndex.getServiceReferences();
+        for (String str : serviceReferences) {
+            addString(strings, str);
+        }
+        for (ClassIndex classIndex : resourceRootIndex.getClasses()) {
+            addString(strings, classIndex.getName());
+            addString(strings, classIndex.getSuperClassName());
+            for (String interfaceName : classIndex.getInterfaceNames()) {
+                addString(strings, interfaceName);
+            }
+            for (int classId : classIndex.getMemberClassRefCounts().keys()) {
+                addString(strings, rootIndex.getClassName(classId));
+            }
+            for (int classId : classIndex.getOtherClassRefCounts().keys()) {
+                addString(strings, rootIndex.getClassName(classId));
+            }
+            for (String str : classIndex.getStrings()) {
+                addString(strings, str);
+            }
+        }
+        writeVarInt(out, strings.size());
+        for (String str : strings.keySet()) {
+            out.writeUTF(str);
+        }
+        writeVarInt(out, resourceRootIndex.getServiceFileCount());
+        writeVarInt(out, serviceReferences.size());
+        for (String str : serviceReferences) {
+            writeVarInt(out, strings.get(str).intValue());
+        }
+        writeVarInt(out, resourceRootIndex.getClasses().size());
+        for (ClassIndex classIndex : resourceRootIndex.getClasses()) {
+            writeVarInt(out, strings.get(classIndex.getName()).intValue());
+            final String superClassName = classIndex.getSuperClassName();
+            writeVarInt(out, superClassName == null ? 0 : strings.get(superClassName).intValue() + 1);
+            final String[] interfaceNames = classIndex.getInterfaceNames();
+            writeVarInt(out, interfaceNames.length);
+            for (String interfaceName : interfaceNames) {
+                writeVarInt(out, strings.get(interfaceName).intValue());
+            }
+            writeCounts(out, strings, rootIndex, classIndex.getMemberClassRefCounts());
+            writeCounts(out, strings, rootIndex, classIndex.getOtherClassRefCounts());
+            writeVarInt(out, classIndex.getStrings().size());
+            for (String str : classIndex.getStrings()) {
+                writeVarInt(out, strings.get(str).intValue());
+            }
+        }
+    }
+
+    static ResourceRootIndex read(final DataInputStream in, final ModuleIndex moduleIndex) throws IOException {
+        final RootIndex rootIndex = moduleIndex.getRootIndex();
+        final String[] strings = new String[readLength(in)];
+        for (int i = 0; i < strings.length; i ++) {
+            strings[i] = rootIndex.intern(in.readUTF());
+        }
+        final ResourceRootIndex resourceRootIndex = new ResourceRootIndex();
+        resourceRootIndex.setCached(true);
+        for (int i = readVarInt(in); i > 0; i --) {
+            resourceRootIndex.addServiceFile();
+        }
+        final int serviceReferenceCount = readVarInt(in);
+        for (int i = 0; i < serviceReferenceCount; i += 2) {
+            resourceRootIndex.addServiceReference(strings[readVarInt(in)], strings[readVarInt(in)]);
+        }
+        final int classCount = readVarInt(in);
+        for (int i = 0; i < classCount; i ++) {
+            final ClassIndex classIndex = new ClassIndex(moduleIndex);
+            classIndex.setName(strings[readVarInt(in)]);
+            final int superClassName = readVarInt(in);
+            if (superClassName != 0) {
+                classIndex.setSuperClassName(strings[superClassName - 1]);
+            }
+            final String[] interfaceNames = new String[readLength(in)];
+            for (int j = 0; j < interfaceNames.length; j ++) {
+                interfaceNames[j] = strings[readVarInt(in)];
+            }
+            classIndex.setInterfaceNames(interfaceNames);
+            for (int j = readVarInt(in); j > 0; j --) {
+                classIndex.addMemberClassRef(strings[readVarInt(in)], readVarInt(in));
+            }
+            for (int j = readVarInt(in); j > 0; j --) {
+                classIndex.addOtherClassRef(strings[readVarInt(in)], readVarInt(in));
+            }
+            for (int j = readVarInt(in); j > 0; j --) {
+                classIndex.addString(strings[readVarInt(in)]);
+            }
+            resourceRootIndex.addClassIndex(classIndex);
+        }
+        return resourceRootIndex;
+    }
+
+    private static void addString(final Map<String, Integer> strings, final String str) {
+        if (str != null && ! strings.containsKey(str)) {
+            strings.put(str, Integer.valueOf(strings.size()));
+        }
+    }
+
+    private static void writeCounts(final DataOutputStream out, final Map<String, Integer> strings, final RootIndex rootIndex, final IntCounts counts) throws IOException {
+        writeVarInt(out, counts.size());
+        for (int classId : counts.keys()) {
+            writeVarInt(out, strings.get(rootIndex.getClassName(classId)).intValue());
+            writeVarInt(out, counts.get(classId));
+        }
+    }
+
+    private static void writeVarInt(final DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte(value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Read the length of an array which is about to be read.  Every element takes at least one byte, so a length
+     * beyond the rest of the file can only come from a damaged file, and is rejected before it is allocated.
+     */
+    private static int readLength(final DataInputStream in) throws IOException {
+        final int length = readVarInt(in);
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid length " + length);
+        }
+        return length;
+    }
+
+    private static int readVarInt(final DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A map from non-negative {@code int} keys to {@code int} counts using open addressing.  Nothing is allocated
+ * until the first key is added.  Not thread safe.
+ */
+final class IntCounts {
+    private static final int[] NO_INTS = new int[0];
+
+    // key + 1 so that 0 marks an empty slot
+    private int[] keys = NO_INTS;
+    private int[] counts = NO_INTS;
+    private int size;
+
+    IntCounts() {
+    }
+
+    interface Visitor {
+        void visit(int key, int count);
+    }
+
+    void add(final int key, final int amount) {
+        int[] keys = this.keys;
+        if (size + 1 > keys.length >> 1) {
+            resize(keys.length == 0 ? 8 : keys.length << 1);
+            keys = this.keys;
+        }
+        final int mask = keys.length - 1;
+        int idx = hash(key) & mask;
+        for (;;) {
+            final int k = keys[idx];
+            if (k == 0) {
+                keys[idx] = key + 1;
+                counts[idx] = amount;
+                size++;
+                return;
+            } else if (k == key + 1) {
+                counts[idx] += amount;
+                return;
+            }
+            idx = idx + 1 & mask;
+        }
+    }
+
+    int get(final int key) {
+        final int idx = find(key);
+        return idx == -1 ? 0 : counts[idx];
+    }
+
+    boolean contains(final int key) {
+        return find(key) != -1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void forEach(final Visitor visitor) {
+        final int[] keys = this.keys;
+        final int[] counts = this.counts;
+        for (int i = 0; i < keys.length; i ++) {
+            if (keys[i] != 0) {
+                visitor.visit(keys[i] - 1, counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Get the keys of this map.
+     *
+     * @return a new sorted array of the keys
+     */
+    int[] keys() {
+        final int[] result = new int[size];
+        int j = 0;
+        for (int k : keys) {
+            if (k != 0) {
+                result[j++] = k - 1;
+            }
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Get the keys of this map as a bit set.
+     *
+     * @return a new bit set of the keys
+     */
+    BitSet keySet() {
+        final BitSet result = new BitSet();
+        for (int k : keys) {
+            if (k != 0) {
+                result.set(k - 1);
+            }
+        }
+        return result;
+    }
+
+    private int find(final int key) {
+        final int[] keys = this.keys;
+        if (keys.length == 0) {
+            return -1;
+        }
+        final int mask = keys.length - 1;
+        int idx = hash(key) & mask;
+        for (;;) {
+            final int k = keys[idx];
+            if (k == 0) {
+                return -1;
+            } else if (k == key + 1) {
+                return idx;
+            }
+            idx = idx + 1 & mask;
+        }
+    }
+
+    private void resize(final int capacity) {
+        final int[] oldKeys = keys;
+        final int[] oldCounts = counts;
+        final int[] keys = new int[capacity];
+        final int[] counts = new int[capacity];
+        final int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i ++) {
+            final int k = oldKeys[i];
+            if (k != 0) {
+                int idx = hash(k - 1) & mask;
+                while (keys[idx] != 0) {
+                    idx = idx + 1 & mask;
+                }
+                keys[idx] = k;
+                counts[idx] = oldCounts[i];
+            }
+        }
+        this.keys = keys;
+        this.counts = counts;
+    }
+
+    private static int hash(int key) {
+        key *= 0x9E3779B9;
+        return key ^ key >>> 16;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A concurrent string intern table.  The table is split into segments by hash; each segment is an open-addressed
+ * array which readers probe without locking, and which writers extend under the segment's own lock, so threads
+ * adding different strings rarely contend.  A full segment array is replaced rather than resized in place, so a
+ * reader holding an old array at worst misses a string added concurrently and retries under the lock.
+ * <p>
+ * Strings may be looked up by a range of any {@code CharSequence}; nothing is allocated when the string is
+ * already present.
+ */
+final class InternTable {
+    private static final int SEGMENT_BITS = 5;
+
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    InternTable() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Get the canonical instance of a string, adding it if it is new.
+     *
+     * @param string the string
+     * @return the canonical instance
+     */
+    String intern(final String string) {
+        return intern(string, 0, string.length());
+    }
+
+    /**
+     * Get the canonical instance of the string in the given range of a character sequence, adding it if it is new.
+     *
+     * @param chars the character sequence
+     * @param start the start of the string
+     * @param end the end of the string
+     * @return the canonical instance
+     */
+    String intern(final CharSequence chars, final int start, final int end) {
+        final int hash = hash(chars, start, end);
+        return segments[hash >>> 32 - SEGMENT_BITS].intern(chars, start, end, hash);
+    }
+
+    /**
+     * Determine whether the table holds a string.
+     *
+     * @param string the string
+     * @return {@code true} if the string is present
+     */
+    boolean contains(final String string) {
+        final int hash = hash(string, 0, string.length());
+        final Segment segment = segments[hash >>> 32 - SEGMENT_BITS];
+        return Segment.find(segment.table, string, 0, string.length(), hash) != null;
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Compute the spread hash of a range of characters, consistent with {@link String#hashCode()} so that the hash
+     * cached by each string can be reused.
+     */
+    private static int hash(final CharSequence chars, final int start, final int end) {
+        int hash;
+        if (start == 0 && chars instanceof String && end == chars.length()) {
+            hash = chars.hashCode();
+        } else {
+            hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + chars.charAt(i);
+            }
+        }
+        return spread(hash);
+    }
+
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ hash >>> 16;
+    }
+
+    private static final class Segment {
+        private volatile AtomicReferenceArray<String> table = new AtomicReferenceArray<>(64);
+        // guarded by this
+        private int size;
+
+        Segment() {
+        }
+
+        String intern(final CharSequence chars, final int start, final int end, final int hash) {
+            final String found = find(table, chars, start, end, hash);
+            if (found != null) {
+                return found;
+            }
+            synchronized (this) {
+                AtomicReferenceArray<String> table = this.table;
+                final String existing = find(table, chars, start, end, hash);
+                if (existing != null) {
+                    return existing;
+                }
+                final String string = chars.subSequence(start, end).toString();
+                if (size + 1 > table.length() >> 1) {
+                    final AtomicReferenceArray<String> newTable = new AtomicReferenceArray<>(table.length() << 1);
+                    for (int i = 0; i < table.length(); i++) {
+                        final String s = table.get(i);
+                        if (s != null) {
+                            insert(newTable, s, spread(s.hashCode()));
+                        }
+                    }
+                    this.table = table = newTable;
+                }
+                insert(table, string, hash);
+                size++;
+                return string;
+            }
+        }
+
+        static String find(final AtomicReferenceArray<String> table, final CharSequence chars, final int start, final int end, final int hash) {
+            final int mask = table.length() - 1;
+            final int length = end - start;
+            int i = hash & mask;
+            for (;;) {
+                final String s = table.get(i);
+                if (s == null) {
+                    return null;
+                }
+                if (s.length() == length && spread(s.hashCode()) == hash && matches(s, chars, start)) {
+                    return s;
+                }
+                i = i + 1 & mask;
+            }
+        }
+
+        private static boolean matches(final String s, final CharSequence chars, final int start) {
+            if (chars instanceof String) {
+                return s.regionMatches(0, (String) chars, start, s.length());
+            }
+            for (int i = 0; i < s.length(); i++) {
+                if (s.charAt(i) != chars.charAt(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static void insert(final AtomicReferenceArray<String> table, final String string, final int hash) {
+            final int mask = table.length() - 1;
+            int i = hash & mask;
+            while (table.get(i) != null) {
+                i = i + 1 & mask;
+            }
+            table.set(i, string);
+        }
+    }
+}
@@ -1,55 +1,48 @@
 package org.jboss.modules.deptool;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
-import nu.xom.Builder;
-import nu.xom.Comment;
-import nu.xom.Document;
-import nu.xom.Element;
-import nu.xom.Elements;
-import nu.xom.Node;
-import nu.xom.ParsingException;
-import nu.xom.Serializer;
-import nu.xom.Text;
 import org.jboss.modules.AliasModuleSpec;
 import org.jboss.modules.ConcreteModuleSpec;
 import org.jboss.modules.DependencySpec;
-import org.jboss.modules.IterableResourceLoader;
 import org.jboss.modules.LocalModuleFinder;
-import org.jboss.modules.Module;
 import org.jboss.modules.ModuleDependencySpec;
 import org.jboss.modules.ModuleIdentifier;
 import org.jboss.modules.ModuleLoadException;
-import org.jboss.modules.ModuleSpec;
 import org.jboss.modules.PathUtils;
-import org.jboss.modules.Resource;
-import org.jboss.modules.ResourceLoader;
 import org.jboss.modules.ResourceLoaderSpec;
-import org.jboss.modules.filter.PathFilter;
 import org.objectweb.asm.AnnotationVisitor;
-import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.FieldVisitor;
 import org.objectweb.asm.Handle;
@@ -68,8 +61,8 @@ public final class Main {
 
     private Main() {}
 
-    private static final Method getResourceLoaders = getAccessibleMethod(ConcreteModuleSpec.class, "getResourceLoaders");
-    private static final Method getResourceLoader = getAccessibleMethod(ResourceLoaderSpec.class, "getResourceLoader");
+    static final Method getResourceLoaders = getAccessibleMethod(ConcreteModuleSpec.class, "getResourceLoaders");
+    static final Method getResourceLoader = getAccessibleMethod(ResourceLoaderSpec.class, "getResourceLoader");
 
     private static Method getAccessibleMethod(final Class<?> clazz, final String methodName, Class<?>... paramTypes) {
         final Method method;
@@ -82,7 +75,7 @@ public final class Main {
         return method;
     }
 
-    private static Object call(Method method, Object target, Object... args) {
+    static Object call(Method method, Object target, Object... args) {
         try {
             return method.invoke(target, args);
         } catch (IllegalAccessException e) {
@@ -98,12 +91,24 @@ public final class Main {
         }
     }
 
-    public static void main(String[] args) throws ModuleLoadException, IOException {
+    public static void main(String[] args) throws ModuleLoadException, IOException, InterruptedException {
         boolean progress = false;
         boolean print = false;
         boolean warn = false;
         boolean fix = false;
+        boolean dryRun = false;
+        boolean watch = false;
         String[] fixPathNames = null;
+        int threads = 1;
+        String cachePathName = null;
+        ScanMode scanMode = ScanMode.FULL;
+        ReportWriter.Format format = ReportWriter.Format.TEXT;
+        String outputPathName = null;
+        String metricsPathName = null;
+        String patchPathName = null;
+        boolean cycles = false;
+        String whyFrom = null;
+        String whyTo = null;
         for (int i = 0; i < args.length; i++) {
             final String arg = args[i];
             if (arg.equals("--progress")) {
@@ -112,6 +117,52 @@ public final class Main {
                 print = true;
             } else if (arg.equals("--warn")) {
                 warn = true;
+            } else if (arg.equals("--threads")) {
+                if (i + 1 < args.length) {
+                    threads = Integer.parseInt(args[++i]);
+                    if (threads < 1) {
+                        threads = Runtime.getRuntime().availableProcessors();
+                    }
+                }
+            } else if (arg.equals("--cache")) {
+                if (i + 1 < args.length) {
+                    cachePathName = args[++i];
+                }
+            } else if (arg.equals("--scan")) {
+                if (i + 1 < args.length) {
+                    scanMode = ScanMode.valueOf(args[++i].toUpperCase(Locale.ROOT).replace('-', '_'));
+                }
+            } else if (arg.equals("--format")) {
+                print = true;
+                if (i + 1 < args.length) {
+                    format = ReportWriter.Format.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                }
+            } else if (arg.equals("--output")) {
+                print = true;
+                if (i + 1 < args.length) {
+                    outputPathName = args[++i];
+                }
+            } else if (arg.equals("--metrics")) {
+                if (i + 1 < args.length) {
+                    metricsPathName = args[++i];
+                }
+            } else if (arg.equals("--watch")) {
+                watch = true;
+                print = true;
+            } else if (arg.equals("--cycles")) {
+                cycles = true;
+            } else if (arg.equals("--why")) {
+                if (i + 2 < args.length) {
+                    whyFrom = args[++i];
+                    whyTo = args[++i];
+                }
+            } else if (arg.equals("--dry-run")) {
+                dryRun = true;
+            } else if (arg.equals("--patch")) {
+                dryRun = true;
+                if (i + 1 < args.length) {
+                    patchPathName = args[++i];
+                }
             } else if (arg.equals("--fix")) {
                 fix = true;
                 if (i + 1 < args.length) {
@@ -120,108 +171,212 @@ public final class Main {
             }
         }
 
-        final RootIndex rootIndex = new RootIndex();
-        final Map<String, Counter> cnt = new LinkedHashMap<>();
+        if (progress && print && outputPathName == null && format != ReportWriter.Format.TEXT) {
+            // the progress counters would be interleaved with the records
+            throw new IllegalArgumentException("--progress needs --output with --format " + format.name().toLowerCase(Locale.ROOT));
+        }
+        if (fix && dryRun && patchPathName == null && (progress || print && outputPathName == null || cycles || whyFrom != null)) {
+            // the patch goes to standard output, so nothing else may be printed there
+            throw new IllegalArgumentException("--dry-run without --patch cannot be combined with --progress, --cycles, --why or a report on standard output");
+        }
+        if (watch && (fix || dryRun || cycles || whyFrom != null || metricsPathName != null)) {
+            // watch mode only reports changes; it never runs the one-shot stages
+            throw new IllegalArgumentException("--watch cannot be combined with --fix, --dry-run, --patch, --cycles, --why or --metrics");
+        }
+
+        final Analyzer analyzer = new Analyzer();
+        analyzer.setThreads(threads);
+        analyzer.setCachePath(cachePathName == null ? null : Paths.get(cachePathName));
+        analyzer.setScanMode(scanMode);
+        analyzer.setProgress(progress);
+        analyzer.setWarn(warn);
+        final ReportWriter report;
+        if (! print) {
+            report = null;
+        } else if (outputPathName == null) {
+            report = new ReportWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)), format, watch);
+        } else {
+            report = new ReportWriter(Files.newBufferedWriter(Paths.get(outputPathName), StandardCharsets.UTF_8), format, watch);
+        }
+
+        try {
+            if (watch) {
+                // watch mode: keep the index and report what changes, until interrupted
+                final String modulePath = System.getProperty("module.path", System.getenv("JAVA_MODULEPATH"));
+                if (modulePath == null) {
+                    throw new IllegalArgumentException("Watch mode needs the module.path system property");
+                }
+                final List<Path> roots = new ArrayList<>();
+                for (String root : modulePath.split(File.pathSeparator)) {
+                    if (! root.isEmpty()) roots.add(Paths.get(root));
+                }
+                new Watcher(analyzer, roots, report, warn).run();
+                return;
+            }
+
+            analyzer.setReport(report);
+
+            // stage 1: do a single-pass index over the module roots
+
+            analyzer.index();
+
+            // stages 2 to 4: build dependent info, push down path info, and link up supertypes
+
+            analyzer.link();
+
+            // stages 5 and 6: find any unused dependencies and modules
+
+            final AnalysisResult result = analyzer.analyze();
+            if (report != null) report.flush();
+
+            if (cycles) {
+                for (ModuleCycle cycle : analyzer.findCycles()) {
+                    System.out.printf("Cycle of %d modules: \"%s\"%n", Integer.valueOf(cycle.getModules().size()), String.join("\", \"", cycle.getModules()));
+                    for (Map.Entry<String, Map<String, List<String>>> entry : cycle.getDependencies().entrySet()) {
+                        for (Map.Entry<String, List<String>> dependency : entry.getValue().entrySet()) {
+                            final List<String> packages = dependency.getValue();
+                            System.out.printf("    \"%s\" -> \"%s\": %s%n", entry.getKey(), dependency.getKey(), packages.isEmpty() ? "no referenced packages" : String.join(", ", packages));
+                        }
+                    }
+                }
+            }
+
+            if (whyFrom != null) {
+                final List<String> why = analyzer.getReachabilityIndex().why(whyFrom, whyTo);
+                if (why.isEmpty()) {
+                    System.out.printf("Module \"%s\" is not loaded by \"%s\"%n", whyTo, whyFrom);
+                } else for (String line : why) {
+                    System.out.println(line);
+                }
+            }
+
+            if (fix && fixPathNames != null) {
+                final Path[] fixPaths = new Path[fixPathNames.length];
+                for (int i = 0; i < fixPathNames.length; i ++) {
+                    fixPaths[i] = Paths.get(fixPathNames[i]);
+                }
+                if (! dryRun) {
+                    System.out.println(analyzer.fix(result, fixPaths));
+                } else if (patchPathName == null) {
+                    // the patch goes to standard output, so keep the summary out of it
+                    final BufferedWriter patch = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+                    final FixResult fixResult = analyzer.diff(result, patch, fixPaths);
+                    patch.flush();
+                    System.err.println(fixResult);
+                } else {
+                    final FixResult fixResult;
+                    try (BufferedWriter patch = Files.newBufferedWriter(Paths.get(patchPathName), StandardCharsets.UTF_8)) {
+                        fixResult = analyzer.diff(result, patch, fixPaths);
+                    }
+                    System.out.println(fixResult);
+                }
+            }
+
+            if (metricsPathName != null) {
+                try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(metricsPathName), StandardCharsets.UTF_8)) {
+                    analyzer.getMetrics().writeTo(writer);
+                }
+            }
+        } finally {
+            if (report != null) {
+                if (outputPathName == null) {
+                    // the report writer wraps standard output, which must stay open
+                    report.flush();
+                } else {
+                    report.close();
+                }
+            }
+        }
+    }
+
+    static void indexModules(final RootIndex rootIndex, final LocalModuleFinder moduleFinder, final int threads, final IndexCache cache, final ScanMode scanMode, final Metrics metrics, final boolean progress, final boolean warn, final Map<String, Counter> cnt) throws IOException, ModuleLoadException {
+        final List<String> moduleNames = new ArrayList<>();
+        final Iterator<String> iterator = moduleFinder.iterateModules((String)null, true);
+        while (iterator.hasNext()) {
+            moduleNames.add(rootIndex.intern(iterator.next()));
+        }
+        addStringCandidates(rootIndex, moduleNames);
+        indexModules(rootIndex, moduleFinder, moduleNames, threads, cache, scanMode, metrics, progress, warn, cnt);
+    }
+
+    /**
+     * Index the given modules.  Each module or alias found replaces any module or alias of the same name in the
+     * root index.
+     */
+    static void indexModules(final RootIndex rootIndex, final LocalModuleFinder moduleFinder, final Collection<String> moduleNames, final int threads, final IndexCache cache, final ScanMode scanMode, final Metrics metrics, final boolean progress, final boolean warn, final Map<String, Counter> cnt) throws IOException, ModuleLoadException {
+        cnt.clear();
         Counter.getCounter(cnt, "print").set(0);
         final Counter modulesCnt = Counter.getCounter(cnt, "modules");
         final Counter aliasCnt = Counter.getCounter(cnt, "module aliases");
         final Counter depCnt = Counter.getCounter(cnt, "dependencies");
         final Counter rrCnt = Counter.getCounter(cnt, "resource roots");
+        final Counter cachedRrCnt = cache == null ? new Counter() : Counter.getCounter(cnt, "cached resource roots");
         final Counter classCnt = Counter.getCounter(cnt, "classes");
         final Counter svcFileCnt = Counter.getCounter(cnt, "service files");
         final Counter svcRefCnt = Counter.getCounter(cnt, "service references");
 
-        // stage 1: do a single-pass index over the module roots
-
-        LocalModuleFinder moduleFinder = new LocalModuleFinder();
-        final Iterator<String> iterator = moduleFinder.iterateModules((String)null, true);
         showProgress(progress, cnt);
-        while (iterator.hasNext()) {
-            final String moduleName = rootIndex.intern(iterator.next());
-            final ModuleSpec moduleSpec = moduleFinder.findModule(moduleName, Module.getBootModuleLoader());
-            if (moduleSpec == null) {
-                if (warn) System.err.printf("Warning: unable to find module \"%s\"%n", moduleName);
-            } else if (moduleSpec instanceof ConcreteModuleSpec) {
-                modulesCnt.getAndIncrement();
-                showProgress(progress, cnt);
-                final ConcreteModuleSpec concreteModuleSpec = (ConcreteModuleSpec) moduleSpec;
-                final ResourceLoaderSpec[] resourceLoaderSpecs = (ResourceLoaderSpec[]) call(getResourceLoaders, concreteModuleSpec);
-                final ModuleIndex moduleIndex = new ModuleIndex(rootIndex, moduleName);
-                rootIndex.addModuleIndex(moduleIndex);
-                final String mainClass = concreteModuleSpec.getMainClass();
-                if (mainClass != null) moduleIndex.setMainClass(mainClass);
-                for (ResourceLoaderSpec resourceLoaderSpec : resourceLoaderSpecs) {
-                    ResourceLoader resourceLoader = (ResourceLoader) call(getResourceLoader, resourceLoaderSpec);
-                    if (resourceLoader instanceof IterableResourceLoader) {
-                        rrCnt.getAndIncrement();
-                        showProgress(progress, cnt);
-                        final IterableResourceLoader loader = (IterableResourceLoader) resourceLoader;
-                        final Iterator<Resource> resourceIterator = loader.iterateResources("", true);
-                        while (resourceIterator.hasNext()) {
-                            final Resource resource = resourceIterator.next();
-                            final String resourceName = resource.getName();
-                            if (resourceName.endsWith(".class")) {
-                                classCnt.getAndIncrement();
-                                showProgress(progress, cnt);
-                                try (InputStream stream = resource.openStream()) {
-                                    final ClassReader classReader = new ClassReader(stream);
-                                    final ClassIndex classIndex = new ClassIndex(moduleIndex);
-                                    classReader.accept(new IndexClassVisitor(null, classIndex), 0);
-                                    moduleIndex.addClassIndex(classIndex);
-                                }
-                            } else if (resourceName.startsWith("META-INF/services/")) {
-                                final String svcIntr = rootIndex.intern(resourceName.substring("META-INF/services/".length()).replace('.', '/'));
-                                svcFileCnt.getAndIncrement();
-                                showProgress(progress, cnt);
-                                try (InputStream is = resource.openStream()) {
-                                    try (InputStreamReader isr = new InputStreamReader(is, StandardCharsets.UTF_8)) {
-                                        try (BufferedReader br = new BufferedReader(isr)) {
-                                            String str;
-                                            while ((str = br.readLine()) != null) {
-                                                final int idx = str.indexOf('#');
-                                                if (idx >= 0) {
-                                                    str = str.substring(0, idx);
-                                                }
-                                                str = str.trim();
-                                                if (! str.isEmpty()) {
-                                                    svcRefCnt.getAndIncrement();
-                                                    moduleIndex.addServiceReference(svcIntr, rootIndex.intern(str.replace('.', '/')));
-                                                }
-                                            }
-                                        }
-                                    }
-                                } catch (IOException e) {
-                                    e.printStackTrace(System.err);
-                                }
-                            }
-                        }
-                    } else {
-                        // ignoring non-iterable RL
-                    }
-                }
-
-                final DependencySpec[] dependencies = concreteModuleSpec.getDependencies();
-                for (DependencySpec dependency : dependencies) {
-                    depCnt.getAndIncrement();
+        final ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        try {
+            final List<ModuleIndexTask> tasks = new ArrayList<>();
+            for (String moduleName : moduleNames) {
+                final ModuleIndexTask task = new ModuleIndexTask(moduleFinder, rootIndex, moduleName, cache, scanMode);
+                if (pool != null) pool.execute(task);
+                tasks.add(task);
+            }
+            // results are consumed in module iteration order so that the index is the same as a serial run
+            for (ModuleIndexTask task : tasks) {
+                if (pool == null) task.invoke();
+                final ModuleIndex moduleIndex = task.getModuleIndex();
+                final AliasModuleSpec aliasModuleSpec = task.getAliasModuleSpec();
+                if (moduleIndex != null) {
+                    modulesCnt.getAndIncrement();
+                    rootIndex.addModuleIndex(moduleIndex);
+                    metrics.addModule(task.getMeasurement());
+                    rrCnt.addAndGet(task.getResourceRootCount());
+                    cachedRrCnt.addAndGet(task.getCachedResourceRootCount());
+                    classCnt.addAndGet(task.getClassCount());
+                    svcFileCnt.addAndGet(task.getServiceFileCount());
+                    svcRefCnt.addAndGet(task.getServiceReferenceCount());
+                    depCnt.addAndGet(task.getDependencyCount());
+                    Counter.getCounter(cnt, "print").set(0);
+                    showProgress(progress, cnt);
+                } else if (aliasModuleSpec != null) {
+                    rootIndex.addAlias(aliasModuleSpec.getName(), aliasModuleSpec.getAliasName());
+                    aliasCnt.getAndIncrement();
                     showProgress(progress, cnt);
-                    moduleIndex.addDependency(dependency);
+                } else {
+                    if (warn) System.err.printf("Warning: unable to find module \"%s\"%n", task.getModuleName());
                 }
-            } else if (moduleSpec instanceof AliasModuleSpec) {
-                final AliasModuleSpec aliasModuleSpec = (AliasModuleSpec) moduleSpec;
-                rootIndex.addAlias(aliasModuleSpec.getName(), aliasModuleSpec.getAliasName());
-                aliasCnt.getAndIncrement();
-                showProgress(progress, cnt);
             }
+        } finally {
+            if (pool != null) pool.shutdown();
         }
         Counter.getCounter(cnt, "print").set(0);
         showProgress(progress, cnt);
         if (progress) System.out.println();
+    }
 
-        // stage 2: build dependent info
+    /**
+     * Register the strings which stage 6 looks for, so that only string constants which could name a module are
+     * kept while indexing.
+     *
+     * @param rootIndex the root index
+     * @param moduleNames the names of every module which will be indexed
+     */
+    static void addStringCandidates(final RootIndex rootIndex, final Collection<String> moduleNames) {
+        for (String moduleName : moduleNames) {
+            rootIndex.addStringCandidate(moduleName);
+            // old slotty module names
+            rootIndex.addStringCandidate(ModuleIdentifier.create(moduleName).getName());
+        }
+    }
 
+    static Map<String, List<String>> linkDependents(final RootIndex rootIndex, final ReportWriter report, final boolean progress, final boolean warn, final Map<String, Counter> cnt) throws IOException {
         cnt.clear();
         Counter.getCounter(cnt, "print").set(0);
         final Counter depEdgeCnt = Counter.getCounter(cnt, "dependent edges");
+        final Map<String, List<String>> unresolved = new LinkedHashMap<>();
 
         for (ModuleIndex moduleIndex : rootIndex.getModules().values()) {
             for (DependencySpec dependencySpec : moduleIndex.getDependencySpecs()) {
@@ -232,6 +387,8 @@ public final class Main {
                     if (dependencyModule == null) {
                         if (! moduleDependencySpec.isOptional()) {
                             if (warn) System.err.printf("Warning: unresolved dependency from \"%s\" to \"%s\"%n", moduleIndex.getName(), moduleName);
+                            if (report != null) report.unresolvedDependency(moduleIndex.getName(), moduleName);
+                            unresolved.computeIfAbsent(moduleIndex.getName(), ignored -> new ArrayList<>()).add(moduleName);
                         }
                     } else {
                         dependencyModule.addDependent(new DependentInfo(moduleIndex, dependencySpec));
@@ -244,25 +401,91 @@ public final class Main {
             }
         }
 
+        if (report != null) report.flush();
         Counter.getCounter(cnt, "print").set(0);
         showProgress(progress, cnt);
         if (progress) System.out.println();
+        return unresolved;
+    }
 
-        // stage 3: push down path info
-
-        final HashSet<ModuleIndex> visited = new HashSet<>();
+    /**
+     * Find the modules which have to be linked again after the given modules were re-indexed or removed: the modules
+     * themselves, every module with a dependency naming one of them, every module whose dependency resolved to one
+     * of them before, and every module depending on any of those, transitively.  The dependents of the index must be
+     * linked (stage 2) already.
+     *
+     * @param rootIndex the root index
+     * @param moduleNames the names of the changed modules
+     * @param formerDependentNames the names of the modules which depended on a changed module, directly or through
+     *      an alias, before it was re-indexed or removed
+     * @return the affected modules which are in the index
+     */
+    static Set<ModuleIndex> findAffectedModules(final RootIndex rootIndex, final Collection<String> moduleNames, final Collection<String> formerDependentNames) {
+        final Set<String> names = new HashSet<>(moduleNames);
+        final Set<String> formerDependents = new HashSet<>(formerDependentNames);
+        final Set<ModuleIndex> affected = new LinkedHashSet<>();
+        final ArrayDeque<ModuleIndex> worklist = new ArrayDeque<>();
         for (ModuleIndex moduleIndex : rootIndex.getModules().values()) {
-            processDependents(moduleIndex.getIncludedPackages(), moduleIndex, visited);
+            // an alias is not linked, so a module which resolved through a changed one is only known from before
+            boolean changed = names.contains(moduleIndex.getName()) || formerDependents.contains(moduleIndex.getName());
+            // a removed dependency is no longer linked, so it is found by name
+            for (DependencySpec dependencySpec : moduleIndex.getDependencySpecs()) {
+                if (dependencySpec instanceof ModuleDependencySpec && names.contains(((ModuleDependencySpec) dependencySpec).getName())) {
+                    changed = true;
+                }
+            }
+            if (changed && affected.add(moduleIndex)) {
+                worklist.add(moduleIndex);
+            }
+        }
+        ModuleIndex moduleIndex;
+        while ((moduleIndex = worklist.poll()) != null) {
+            for (DependentInfo dependentInfo : moduleIndex.getDependents()) {
+                final ModuleIndex dependent = dependentInfo.getDependentModuleIndex();
+                if (affected.add(dependent)) {
+                    worklist.add(dependent);
+                }
+            }
         }
+        return affected;
+    }
+
+    static void propagatePaths(final RootIndex rootIndex, final boolean progress, final Map<String, Counter> cnt) {
+        propagatePaths(rootIndex, null, progress, cnt);
+    }
+
+    /**
+     * Push down path info (stage 3) for the given modules, or for every module.
+     *
+     * @param modules the unlinked modules to propagate to, which include all of their dependents, or {@code null}
+     *      for every module
+     */
+    static void propagatePaths(final RootIndex rootIndex, final Set<ModuleIndex> modules, final boolean progress, final Map<String, Counter> cnt) {
+        cnt.clear();
+        Counter.getCounter(cnt, "print").set(0);
+        final PathPropagator propagator = new PathPropagator(rootIndex);
+        Counter.getCounter(cnt, "mapped dependencies").set(modules == null ? propagator.propagate() : propagator.propagate(modules));
+        countFilterCache(rootIndex, cnt);
+        showProgress(progress, cnt);
+        if (progress) System.out.println();
+    }
 
-        // stage 4: link up supertypes and add inherited package references
+    static void linkSupertypes(final RootIndex rootIndex, final boolean progress, final Map<String, Counter> cnt) {
+        linkSupertypes(rootIndex, rootIndex.getModules().values(), progress, cnt);
+    }
 
+    /**
+     * Link up supertypes and add inherited package references (stage 4) for the given modules.
+     *
+     * @param modules the unlinked modules, which include all of their dependents
+     */
+    static void linkSupertypes(final RootIndex rootIndex, final Collection<ModuleIndex> modules, final boolean progress, final Map<String, Counter> cnt) {
         cnt.clear();
         Counter.getCounter(cnt, "print").set(0);
         final Counter classLinkCnt = Counter.getCounter(cnt, "resolved class links");
 //        final Counter unresolvedCnt = Counter.getCounter(cnt, "unresolved class links");
 
-        for (ModuleIndex moduleIndex : rootIndex.getModules().values()) {
+        for (ModuleIndex moduleIndex : modules) {
             // link up supertypes
             for (ClassIndex classIndex : moduleIndex.getClasses()) {
                 final String superClassName = classIndex.getSuperClassName();
@@ -288,27 +511,61 @@ public final class Main {
                 }
             }
         }
-        for (ModuleIndex moduleIndex : rootIndex.getModules().values()) {
+        for (ModuleIndex moduleIndex : modules) {
             for (ClassIndex classIndex : moduleIndex.getClasses()) {
-                addReferences(moduleIndex, classIndex);
+                for (int classRef : classIndex.getInheritedMemberClassRefs()) {
+                    moduleIndex.addInheritedClassRef(classRef);
+                }
             }
         }
 
         Counter.getCounter(cnt, "print").set(0);
         showProgress(progress, cnt);
         if (progress) System.out.println();
+    }
 
-        // stage 5: find any unused dependencies
+    static Map<ModuleIndex, List<DependencyInfo>> findUnusedDependencies(final RootIndex rootIndex, final ReportWriter report, final boolean progress, final Map<String, Counter> cnt) throws IOException {
+        return findUnusedDependencies(rootIndex, null, null, report, progress, cnt);
+    }
 
+    /**
+     * Find any unused dependencies (stage 5).  Whether a dependency is used only depends on the module and the
+     * dependency module, so the findings of a module which was not linked again are taken from the previous run.
+     *
+     * @param modules the modules to examine, which include all of their dependents, or {@code null} for every module
+     * @param previous the findings of the previous run, if {@code modules} is not {@code null}
+     * @return the unused dependencies of each module which has any, in index order
+     */
+    static Map<ModuleIndex, List<DependencyInfo>> findUnusedDependencies(final RootIndex rootIndex, final Set<ModuleIndex> modules, final Map<ModuleIndex, List<DependencyInfo>> previous, final ReportWriter report, final boolean progress, final Map<String, Counter> cnt) throws IOException {
         cnt.clear();
         Counter.getCounter(cnt, "print").set(0);
         final Counter exportsCnt = Counter.getCounter(cnt, "exports");
         final Counter unusedCnt = Counter.getCounter(cnt, "unused dependencies");
 
-        final Map<ModuleIndex, List<DependencyInfo>> unusedDeps = new HashMap<>();
+        final Map<ModuleIndex, List<DependencyInfo>> unusedDeps = new LinkedHashMap<>();
+
+        // the IDs of the packages a dependency could be re-exporting, computed once per dependency module
+        final Map<ModuleIndex, BitSet> reexportablePackages = new HashMap<>();
+        final PathFilterCache filterCache = rootIndex.getPathFilterCache();
+        final int servicesId = rootIndex.getPackageId(SERVICES);
 
         for (ModuleIndex moduleIndex : rootIndex.getModules().values()) {
+            if (modules != null && ! modules.contains(moduleIndex)) {
+                final List<DependencyInfo> previousUnusedDeps = previous.get(moduleIndex);
+                if (previousUnusedDeps != null) {
+                    unusedDeps.put(moduleIndex, previousUnusedDeps);
+                    unusedCnt.addAndGet(previousUnusedDeps.size());
+                    if (report != null) {
+                        for (DependencyInfo dependency : previousUnusedDeps) {
+                            report.unusedDependency(moduleIndex.getName(), dependency.getDependencyModuleIndex().getName());
+                        }
+                        report.flush();
+                    }
+                }
+                continue;
+            }
             Set<ModuleIndex> visitedDependencies = new HashSet<>();
+            final Set<ModuleIndex> referencedDependencies = moduleIndex.getReferencedDependencyModules();
             outer: for (DependencyInfo dependency : moduleIndex.getDependencies()) {
                 final ModuleIndex dependencyModuleIndex = dependency.getDependencyModuleIndex();
                 final DependencySpec dependencySpec = dependency.getDependencySpec();
@@ -321,215 +578,216 @@ public final class Main {
                     // re-export counts as usage
                     continue outer;
                 }
-                final Set<String> paths = moduleIndex.getPathsByDependency(dependencyModuleIndex);
-                final Collection<String> packageReferences = moduleIndex.getPackageReferences();
-                for (String packageReference : packageReferences) {
-                    if (paths.contains(packageReference)) {
-                        // it's used
-                        continue outer;
-                    }
+                if (referencedDependencies.contains(dependencyModuleIndex)) {
+                    // it's used
+                    continue outer;
                 }
-                final boolean importsServices = dependencySpec.getImportFilter().accept(SERVICES);
+                final boolean importsServices = filterCache.accept(dependencySpec.getImportFilter(), servicesId);
                 // any dependency where services are imported is considered used
                 if (importsServices) {
                     // it's used
                     continue outer;
                 }
-                // maybe we simply re-export stuff from this dependency
-                for (String packageName : dependency.getDependencyModuleIndex().getIncludedPackages()) {
-                    if (dependencySpec.getImportFilter().accept(packageName) && dependencySpec.getExportFilter().accept(packageName)) {
-                        continue outer;
-                    }
-                }
-                // or somewhat less likely...
-                for (String packageName : dependency.getDependencyModuleIndex().getDependencyPaths()) {
-                    if (dependencySpec.getImportFilter().accept(packageName) && dependencySpec.getExportFilter().accept(packageName)) {
-                        continue outer;
-                    }
+                // maybe we simply re-export stuff from this dependency (or somewhat less likely, from its dependencies)
+                final BitSet packageIds = (BitSet) reexportablePackages.computeIfAbsent(dependencyModuleIndex, Main::getReexportablePackages).clone();
+                filterCache.retainAccepted(dependencySpec.getImportFilter(), packageIds);
+                if (filterCache.acceptsAny(dependencySpec.getExportFilter(), packageIds)) {
+                    continue outer;
                 }
                 // maybe it's optional
                 if (dependencySpec instanceof ModuleDependencySpec && ((ModuleDependencySpec) dependencySpec).isOptional()) {
                     continue outer;
                 }
-                if (print) System.out.printf("Unused dependency from \"%s\" to \"%s\"%n", moduleIndex.getName(), dependencyModuleIndex.getName());
                 unusedDeps.computeIfAbsent(moduleIndex, ignored -> new ArrayList<>()).add(dependency);
                 unusedCnt.getAndIncrement();
             }
+            // stream this module's findings as soon as it is done
+            final List<DependencyInfo> moduleUnusedDeps = unusedDeps.get(moduleIndex);
+            if (report != null && moduleUnusedDeps != null) {
+                for (DependencyInfo dependency : moduleUnusedDeps) {
+                    report.unusedDependency(moduleIndex.getName(), dependency.getDependencyModuleIndex().getName());
+                }
+                report.flush();
+            }
         }
+        countFilterCache(rootIndex, cnt);
+        return unusedDeps;
+    }
 
-        if (fix && fixPathNames != null) {
-            final Path[] fixPaths = new Path[fixPathNames.length];
-            for (int i = 0; i < fixPathNames.length; i ++) {
-                fixPaths[i] = Paths.get(fixPathNames[i]);
-            }
-            for (Map.Entry<ModuleIndex, List<DependencyInfo>> entry : unusedDeps.entrySet()) {
-                final ModuleIndex moduleIndex = entry.getKey();
-                // find the module under fixPath
-                final String moduleName = moduleIndex.getName();
-                final String relativePath = PathUtils.basicModuleNameToPath(moduleName);
-                if (relativePath == null) {
-                    if (warn) System.err.println("Invalid path name for module " + moduleName);
-                    continue;
-                }
-                Path moduleXml = null;
-                for (Path fixPath : fixPaths) {
-                    moduleXml = fixPath.resolve(relativePath).resolve("module.xml");
-                    if (Files.exists(moduleXml)) break;
-                    moduleXml = fixPath.resolve("modules/system/layers/base").resolve(relativePath).resolve("module.xml");
-                    if (Files.exists(moduleXml)) break;
-                    moduleXml = null;
-                }
-                if (moduleXml == null) {
-                    if (warn) System.err.println("Cannot find module.xml for module " + moduleName);
-                    continue;
-                }
-                Builder builder = new Builder(false);
-                final Document document;
-                try (BufferedReader reader = Files.newBufferedReader(moduleXml, StandardCharsets.UTF_8)) {
-                    document = builder.build(reader);
-                } catch (ParsingException e) {
-                    if (warn) {
-                        System.err.print("Failed to parse " + moduleXml + ": ");
-                        e.printStackTrace(System.err);
-                    }
-                    continue;
-                }
-
-                final Element rootElement = document.getRootElement();
-                final String rootNamespace = rootElement.getNamespaceURI();
-                final Element dependenciesElement = rootElement.getFirstChildElement("dependencies", rootNamespace);
-                if (dependenciesElement == null) {
-                    if (warn) System.err.println("Unexpected missing <dependencies> element");
-                    continue;
-                }
-                final Elements dependencyElements = dependenciesElement.getChildElements("module", rootNamespace);
-                final int size = dependencyElements.size();
-                final Collection<DependencyInfo> unusedDependencies = entry.getValue();
-                for (int i = 0; i < size; i ++) {
-                    final Element dependencyElement = dependencyElements.get(i);
-                    dep: for (DependencyInfo dependency : unusedDependencies) {
-                        final String dependencyName = dependency.getDependencyModuleIndex().getName();
-                        if (dependencyName.equals(dependencyElement.getAttributeValue("name"))) {
-                            int idx = dependenciesElement.indexOf(dependencyElement);
-                            // see if it's marked "keep"
-                            for (int fi = idx - 1; fi >= 0; fi --) {
-                                final Node sibling = dependenciesElement.getChild(fi);
-                                if (sibling instanceof Comment && sibling.getValue().trim().toLowerCase(Locale.ROOT).equals("keep")) {
-                                    if (warn) System.err.println("Explicitly preserving dependency " + dependencyName + " in " + moduleXml);
-                                    // skip this one explicitly
-                                    continue dep;
-                                } else if (sibling instanceof Element) {
-                                    break;
-                                }
-                            }
-                            dependenciesElement.removeChild(idx);
-                            while (idx > 0) {
-                                idx --;
-                                final Node sibling = dependenciesElement.getChild(idx);
-                                if (sibling instanceof Comment) {
-                                    dependenciesElement.removeChild(idx);
-                                } else if (sibling instanceof Text) {
-                                    final Text text = (Text) sibling;
-                                    dependenciesElement.removeChild(idx);
-                                    if (! text.getValue().trim().isEmpty()) {
-                                        if (warn) System.err.println("Removed extra text around " + dependencyElement + " in " + moduleXml);
-                                    }
-                                } else {
-                                    break;
-                                }
-                            }
-                            break;
-                        }
-                    }
-                }
+    private static void countFilterCache(final RootIndex rootIndex, final Map<String, Counter> cnt) {
+        final PathFilterCache filterCache = rootIndex.getPathFilterCache();
+        Counter.getCounter(cnt, "filter cache hits").set(filterCache.getHitCount());
+        Counter.getCounter(cnt, "filter cache misses").set(filterCache.getMissCount());
+    }
+
+    private static BitSet getReexportablePackages(final ModuleIndex moduleIndex) {
+        final BitSet packageIds = moduleIndex.getIncludedPackageIds().keySet();
+        packageIds.or(moduleIndex.getDependencyPathIds());
+        return packageIds;
+    }
+
+    /**
+     * Remove unused dependencies from the {@code module.xml} files of the modules.  The descriptors are located with
+     * a single walk over the fix roots, and are then edited in parallel when there is more than one thread.  Given a
+     * patch writer, this is a dry run: the descriptors are left alone, and a unified diff of each change, relative
+     * to the fix root the descriptor is under, is written instead.
+     */
+    static FixResult fixModules(final Map<ModuleIndex, List<DependencyInfo>> unusedDeps, final Path[] fixPaths, final Writer patch, final int threads, final boolean progress, final boolean warn, final Map<String, Counter> cnt) throws IOException {
+        cnt.clear();
+        Counter.getCounter(cnt, "print").set(0);
+        final Counter fixedCnt = Counter.getCounter(cnt, "module descriptors fixed");
+        final Counter removedCnt = Counter.getCounter(cnt, "dependencies removed");
+        final List<String> rewritten = new ArrayList<>();
+        final List<String> missing = new ArrayList<>();
+        final List<String> failed = new ArrayList<>();
+        int kept = 0;
+
+        final Set<Path> moduleXmls = findModuleDescriptors(fixPaths);
+        final List<ModuleFixTask> tasks = new ArrayList<>();
+        for (Map.Entry<ModuleIndex, List<DependencyInfo>> entry : unusedDeps.entrySet()) {
+            if (entry.getValue().isEmpty()) continue;
+            // find the module under fixPath
+            final String moduleName = entry.getKey().getName();
+            final String relativePath = PathUtils.basicModuleNameToPath(moduleName);
+            if (relativePath == null) {
+                if (warn) System.err.println("Invalid path name for module " + moduleName);
+                missing.add(moduleName);
+                continue;
+            }
+            Path moduleXml = null;
+            Path moduleRoot = null;
+            for (Path fixPath : fixPaths) {
+                moduleRoot = fixPath;
+                moduleXml = fixPath.resolve(relativePath).resolve("module.xml");
+                if (moduleXmls.contains(moduleXml)) break;
+                moduleXml = fixPath.resolve("modules/system/layers/base").resolve(relativePath).resolve("module.xml");
+                if (moduleXmls.contains(moduleXml)) break;
+                moduleXml = null;
+            }
+            if (moduleXml == null) {
+                if (warn) System.err.println("Cannot find module.xml for module " + moduleName);
+                missing.add(moduleName);
+                continue;
+            }
+            final String diffPath = patch == null ? null : moduleRoot.relativize(moduleXml).toString().replace(File.separatorChar, '/');
+            tasks.add(new ModuleFixTask(moduleName, moduleXml, entry.getValue(), diffPath, warn));
+        }
 
-                try (OutputStream out = Files.newOutputStream(moduleXml, StandardOpenOption.TRUNCATE_EXISTING)) {
-                    final Serializer serializer = new Serializer(out);
-                    serializer.setLineSeparator("\n");
-                    serializer.write(document);
-                } catch (IOException e) {
+        showProgress(progress, cnt);
+        final ForkJoinPool pool = threads > 1 && tasks.size() > 1 ? new ForkJoinPool(threads) : null;
+        try {
+            if (pool != null) for (ModuleFixTask task : tasks) {
+                pool.execute(task);
+            }
+            // results are consumed in index order so that the warnings and the patch are the same as a serial run
+            for (ModuleFixTask task : tasks) {
+                final boolean fixed = pool == null ? task.invoke().booleanValue() : task.join().booleanValue();
+                for (String warning : task.getWarnings()) {
+                    System.err.println(warning);
+                }
+                if (task.getFailure() != null) {
                     if (warn) {
-                        System.err.print("Failed to write " + moduleXml + ": ");
-                        e.printStackTrace(System.err);
+                        System.err.print(task.getFailureMessage() + ": ");
+                        task.getFailure().printStackTrace(System.err);
                     }
-                    continue;
+                    failed.add(task.getModuleName());
+                } else if (fixed) {
+                    if (patch != null) patch.write(task.getDiff());
+                    rewritten.add(task.getModuleName());
+                    fixedCnt.getAndIncrement();
+                    removedCnt.addAndGet(task.getRemovedCount());
+                    showProgress(progress, cnt);
                 }
+                kept += task.getKeptCount();
             }
+        } finally {
+            if (pool != null) pool.shutdown();
         }
-
         Counter.getCounter(cnt, "print").set(0);
         showProgress(progress, cnt);
         if (progress) System.out.println();
+        return new FixResult(rewritten, missing, failed, removedCnt.get(), kept, patch != null);
+    }
 
-        // stage 6: find any unused modules
-
-        cnt.clear();
-        Counter.getCounter(cnt, "print").set(0);
+    /**
+     * Find every {@code module.xml} below the given roots, following symbolic links.
+     *
+     * @param roots the directories to search
+     * @return the paths of the descriptors, each resolved against the root it was found under
+     */
+    static Set<Path> findModuleDescriptors(final Path[] roots) throws IOException {
+        final Set<Path> moduleXmls = new HashSet<>();
+        for (Path root : roots) {
+            if (! Files.isDirectory(root)) continue;
+            Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                    if (file.getFileName().toString().equals("module.xml")) {
+                        moduleXmls.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
 
-        int unused = 0;
-        for (ModuleIndex moduleIndex : rootIndex.getModules().values()) {
-            if (moduleIndex.hasMainClass()) continue;
-            final String moduleName = moduleIndex.getName();
-            // process old slotty module names
-            final ModuleIdentifier moduleIdentifier = ModuleIdentifier.create(moduleName);
-            final String namePart = moduleIdentifier.getName();
-            final String slotPart = moduleIdentifier.getSlot();
-            if (moduleIndex.getDependents().isEmpty() && ! (rootIndex.hasString(moduleName) || rootIndex.hasString(namePart))) {
-                if (print) System.out.printf("Unused module \"%s\"%n", moduleName);
-                unused++;
-            }
+                public FileVisitResult visitFileFailed(final Path file, final IOException exc) {
+                    // an unreadable directory or a link cycle; Files.exists would not have found anything there either
+                    return FileVisitResult.CONTINUE;
+                }
+            });
         }
-        if (print) System.out.printf("Found %d unused modules%n", Integer.valueOf(unused));
-
+        return moduleXmls;
     }
 
-    private static void addReferences(final ModuleIndex moduleIndex, final ClassIndex classIndex) {
-        final ClassIndex superClassIndex = classIndex.getSuperClassIndex();
-        if (superClassIndex != null) {
-            for (String classRef : superClassIndex.getMemberClassRefs()) {
-                moduleIndex.addClassRef(classRef);
+    /**
+     * Find the dependency cycles of the module graph.  The strongly connected components of the graph are already
+     * known, so this is one pass over the modules and their dependencies.
+     *
+     * @param graph the module graph
+     * @return the cycles, with every dependency inside of each cycle
+     */
+    static List<ModuleCycle> findCycles(final ModuleGraph graph) {
+        final List<ModuleCycle> cycles = new ArrayList<>();
+        for (int c = 0; c < graph.getComponentCount(); c ++) {
+            final int[] members = graph.getComponentModules(c);
+            final List<String> modules = new ArrayList<>(members.length);
+            final Map<String, Map<String, List<String>>> dependencies = new LinkedHashMap<>();
+            for (int member : members) {
+                final ModuleIndex moduleIndex = graph.getModuleIndex(member);
+                modules.add(moduleIndex.getName());
+                final Map<String, List<String>> justified = new LinkedHashMap<>();
+                for (int edge = graph.getFirstEdge(member); edge < graph.getFirstEdge(member + 1); edge ++) {
+                    final int target = graph.getEdgeTarget(edge);
+                    if (graph.getComponent(target) == c) {
+                        final ModuleIndex dependency = graph.getModuleIndex(target);
+                        justified.computeIfAbsent(dependency.getName(), ignored -> Collections.unmodifiableList(new ArrayList<>(moduleIndex.getReferencedPathsByDependency(dependency))));
+                    }
+                }
+                if (! justified.isEmpty()) {
+                    dependencies.put(moduleIndex.getName(), Collections.unmodifiableMap(justified));
+                }
             }
-            addReferences(moduleIndex, superClassIndex);
-        }
-        for (ClassIndex interfaceIndex : classIndex.getInterfaceClassIndexes().values()) {
-            for (String classRef : interfaceIndex.getMemberClassRefs()) {
-                moduleIndex.addClassRef(classRef);
+            // a single module is only a cycle if it depends on itself
+            if (! dependencies.isEmpty()) {
+                cycles.add(new ModuleCycle(modules, dependencies));
             }
-            addReferences(moduleIndex, interfaceIndex);
         }
+        return cycles;
     }
 
-    private static ArrayList<String> filteredCopy(Collection<String> original, PathFilter filter) {
-        final ArrayList<String> copy = new ArrayList<>(original);
-        copy.removeIf(s -> ! filter.accept(s));
-        copy.trimToSize();
-        return copy;
-    }
-
-    private static void processDependents(final Collection<String> remainingPaths, final ModuleIndex moduleIndex, final Set<ModuleIndex> visited) {
-        if (visited.add(moduleIndex)) try {
-            for (DependentInfo dependentInfo : moduleIndex.getDependents()) {
-                final DependencySpec dependencySpec = dependentInfo.getIncomingDependencySpec();
-                final ArrayList<String> imported = filteredCopy(remainingPaths, dependencySpec.getImportFilter());
-                if (imported.isEmpty()) {
-                    continue;
-                }
-                if (dependentInfo.getDependentModuleIndex().mapDependencyPackages(imported, moduleIndex, dependencySpec) == 0) {
-                    continue;
-                }
-                final ArrayList<String> exported = filteredCopy(imported, dependencySpec.getExportFilter());
-                if (exported.isEmpty()) {
-                    continue;
-                }
-                dependentInfo.getDependentModuleIndex().addExportedModule(moduleIndex);
-                processDependents(exported, dependentInfo.getDependentModuleIndex(), visited);
+    static List<ModuleIndex> findUnusedModules(final RootIndex rootIndex) {
+        final List<ModuleIndex> unused = new ArrayList<>();
+        for (ModuleIndex moduleIndex : rootIndex.getModules().values()) {
+            if (moduleIndex.hasMainClass()) continue;
+            final String moduleName = moduleIndex.getName();
+            // process old slotty module names
+            final ModuleIdentifier moduleIdentifier = ModuleIdentifier.create(moduleName);
+            final String namePart = moduleIdentifier.getName();
+            if (moduleIndex.getDependents().isEmpty() && ! (rootIndex.hasString(moduleName) || rootIndex.hasString(namePart))) {
+                unused.add(moduleIndex);
             }
-        } finally {
-            visited.remove(moduleIndex);
         }
+        return unused;
     }
 
-    private static void showProgress(final boolean progress, final Map<String, Counter> cnt) {
+    static void showProgress(final boolean progress, final Map<String, Counter> cnt) {
         if (progress) {
             if (Counter.getCounter(cnt, "print").getAndIncrement() % 137 == 0) {
                 System.out.print("\rProcessed ");
@@ -547,46 +805,6 @@ public final class Main {
         }
     }
 
-    static void addOtherReference(ClassIndex classIndex, Type type) {
-        switch (type.getSort()) {
-            case Type.ARRAY: {
-                addOtherReference(classIndex, type.getElementType());
-                break;
-            }
-            case Type.OBJECT: {
-                classIndex.addOtherClassRef(type.getClassName());
-                break;
-            }
-            case Type.METHOD: {
-                addOtherReference(classIndex, type.getReturnType());
-                for (Type argType : type.getArgumentTypes()) {
-                    addOtherReference(classIndex, argType);
-                }
-                break;
-            }
-        }
-    }
-
-    static void addMemberReference(ClassIndex classIndex, Type type) {
-        switch (type.getSort()) {
-            case Type.ARRAY: {
-                addMemberReference(classIndex, type.getElementType());
-                break;
-            }
-            case Type.OBJECT: {
-                classIndex.addMemberClassRef(type.getClassName());
-                break;
-            }
-            case Type.METHOD: {
-                addMemberReference(classIndex, type.getReturnType());
-                for (Type argType : type.getArgumentTypes()) {
-                    addMemberReference(classIndex, argType);
-                }
-                break;
-            }
-        }
-    }
-
     static class IndexClassVisitor extends ClassVisitor {
         private final ClassIndex classIndex;
 
@@ -612,32 +830,29 @@ public final class Main {
         }
 
         public AnnotationVisitor visitAnnotation(final String desc, final boolean visible) {
-            addOtherReference(classIndex, Type.getType(desc));
+            DescriptorScanner.addOtherReferences(classIndex, desc);
             return new IndexAnnotationVisitor(super.visitAnnotation(desc, visible), classIndex);
         }
 
         public AnnotationVisitor visitTypeAnnotation(final int typeRef, final TypePath typePath, final String desc, final boolean visible) {
-            addOtherReference(classIndex, Type.getType(desc));
+            DescriptorScanner.addOtherReferences(classIndex, desc);
             return new IndexAnnotationVisitor(super.visitTypeAnnotation(typeRef, typePath, desc, visible), classIndex);
         }
 
-        public FieldVisitor visitField(final int access, final String name, String desc, final String signature, final Object value) {
-            while (desc.startsWith("[")) {
-                desc = desc.substring(1);
-            }
+        public FieldVisitor visitField(final int access, final String name, final String desc, final String signature, final Object value) {
             if ((access & Opcodes.ACC_PUBLIC) != 0 || (access & Opcodes.ACC_PROTECTED) != 0) {
-                addMemberReference(classIndex, Type.getType(desc));
+                DescriptorScanner.addMemberReferences(classIndex, desc);
             } else {
-                addOtherReference(classIndex, Type.getType(desc));
+                DescriptorScanner.addOtherReferences(classIndex, desc);
             }
             return new IndexFieldVisitor(super.visitField(access, name, desc, signature, value), classIndex);
         }
 
         public MethodVisitor visitMethod(final int access, final String name, final String desc, final String signature, final String[] exceptions) {
             if ((access & Opcodes.ACC_STATIC) == 0 && (access & Opcodes.ACC_PRIVATE) == 0) {
-                addOtherReference(classIndex, Type.getType(desc));
+                DescriptorScanner.addOtherReferences(classIndex, desc);
             } else {
-                addMemberReference(classIndex, Type.getType(desc));
+                DescriptorScanner.addMemberReferences(classIndex, desc);
             }
             return new IndexMethodVisitor(super.visitMethod(access, name, desc, signature, exceptions), classIndex);
         }
@@ -657,8 +872,7 @@ public final class Main {
 
         public void visit(final String name, final Object value) {
             if (value instanceof Type) {
-                String className = ((Type) value).getClassName();
-                classIndex.addOtherClassRef(className);
+                DescriptorScanner.addOtherReferences(classIndex, ((Type) value).getDescriptor());
             }
             super.visit(name, value);
         }
@@ -668,7 +882,7 @@ public final class Main {
         }
 
         public AnnotationVisitor visitAnnotation(final String name, final String desc) {
-            addOtherReference(classIndex, Type.getType(desc));
+            DescriptorScanner.addOtherReferences(classIndex, desc);
             return new IndexAnnotationVisitor(super.visitAnnotation(name, desc), classIndex);
         }
 
@@ -690,12 +904,12 @@ public final class Main {
         }
 
         public AnnotationVisitor visitAnnotation(final String desc, final boolean visible) {
-            addOtherReference(classIndex, Type.getType(desc));
+            DescriptorScanner.addOtherReferences(classIndex, desc);
             return new IndexAnnotationVisitor(super.visitAnnotation(desc, visible), classIndex);
         }
 
         public AnnotationVisitor visitTypeAnnotation(final int typeRef, final TypePath typePath, final String desc, final boolean visible) {
-            addOtherReference(classIndex, Type.getType(desc));
+            DescriptorScanner.addOtherReferences(classIndex, desc);
             return new IndexAnnotationVisitor(super.visitTypeAnnotation(typeRef, typePath, desc, visible), classIndex);
         }
 
@@ -714,33 +928,33 @@ public final class Main {
         }
 
         public void visitMethodInsn(final int opcode, final String owner, final String name, final String desc, final boolean itf) {
-            addMemberReference(classIndex, Type.getType(desc));
-            classIndex.addOtherClassRef(owner);
+            DescriptorScanner.addMemberReferences(classIndex, desc);
+            DescriptorScanner.addOtherTypeReference(classIndex, owner);
             super.visitMethodInsn(opcode, owner, name, desc, itf);
         }
 
         public void visitTypeInsn(final int opcode, final String type) {
-            classIndex.addOtherClassRef(type);
+            DescriptorScanner.addOtherTypeReference(classIndex, type);
             super.visitTypeInsn(opcode, type);
         }
 
         public void visitInvokeDynamicInsn(final String name, final String desc, final Handle bsm, final Object... bsmArgs) {
-            addOtherReference(classIndex, Type.getType(desc));
+            DescriptorScanner.addOtherReferences(classIndex, desc);
             super.visitInvokeDynamicInsn(name, desc, bsm, bsmArgs);
         }
 
         public void visitLocalVariable(final String name, final String desc, final String signature, final Label start, final Label end, final int index) {
-            addOtherReference(classIndex, Type.getType(desc));
+            DescriptorScanner.addOtherReferences(classIndex, desc);
             super.visitLocalVariable(name, desc, signature, start, end, index);
         }
 
         public AnnotationVisitor visitLocalVariableAnnotation(final int typeRef, final TypePath typePath, final Label[] start, final Label[] end, final int[] index, final String desc, final boolean visible) {
-            addOtherReference(classIndex, Type.getType(desc));
+            DescriptorScanner.addOtherReferences(classIndex, desc);
             return new IndexAnnotationVisitor(super.visitLocalVariableAnnotation(typeRef, typePath, start, end, index, desc, visible), classIndex);
         }
 
         public AnnotationVisitor visitParameterAnnotation(final int parameter, final String desc, final boolean visible) {
-            addOtherReference(classIndex, Type.getType(desc));
+            DescriptorScanner.addOtherReferences(classIndex, desc);
             return new IndexAnnotationVisitor(super.visitParameterAnnotation(parameter, desc, visible), classIndex);
         }
 
@@ -750,33 +964,32 @@ public final class Main {
         }
 
         public AnnotationVisitor visitAnnotation(final String desc, final boolean visible) {
-            addOtherReference(classIndex, Type.getType(desc));
+            DescriptorScanner.addOtherReferences(classIndex, desc);
             return new IndexAnnotationVisitor(super.visitAnnotation(desc, visible), classIndex);
         }
 
         public AnnotationVisitor visitTypeAnnotation(final int typeRef, final TypePath typePath, final String desc, final boolean visible) {
-            addOtherReference(classIndex, Type.getType(desc));
+            DescriptorScanner.addOtherReferences(classIndex, desc);
             return new IndexAnnotationVisitor(super.visitTypeAnnotation(typeRef, typePath, desc, visible), classIndex);
         }
 
         public void visitLdcInsn(final Object cst) {
             if (cst instanceof String) {
-                final RootIndex rootIndex = classIndex.getModuleIndex().getRootIndex();
-                rootIndex.addString((String) cst);
+                classIndex.addString((String) cst);
             } else if (cst instanceof Type) {
-                addOtherReference(classIndex, (Type) cst);
+                DescriptorScanner.addOtherReferences(classIndex, ((Type) cst).getDescriptor());
             }
             super.visitLdcInsn(cst);
         }
 
         public void visitFieldInsn(final int opcode, final String owner, final String name, final String desc) {
-            addOtherReference(classIndex, Type.getType(desc));
-            classIndex.addOtherClassRef(owner);
+            DescriptorScanner.addOtherReferences(classIndex, desc);
+            DescriptorScanner.addOtherTypeReference(classIndex, owner);
             super.visitFieldInsn(opcode, owner, name, desc);
         }
 
         public void visitMultiANewArrayInsn(final String desc, final int dims) {
-            addOtherReference(classIndex, Type.getType(desc));
+            DescriptorScanner.addOtherReferences(classIndex, desc);
             super.visitMultiANewArrayInsn(desc, dims);
         }
 
@@ -785,12 +998,12 @@ public final class Main {
         }
 
         public AnnotationVisitor visitTryCatchAnnotation(final int typeRef, final TypePath typePath, final String desc, final boolean visible) {
-            addOtherReference(classIndex, Type.getType(desc));
+            DescriptorScanner.addOtherReferences(classIndex, desc);
             return new IndexAnnotationVisitor(super.visitTryCatchAnnotation(typeRef, typePath, desc, visible), classIndex);
         }
 
         public AnnotationVisitor visitInsnAnnotation(final int typeRef, final TypePath typePath, final String desc, final boolean visible) {
-            addOtherReference(classIndex, Type.getType(desc));
+            DescriptorScanner.addOtherReferences(classIndex, desc);
             return new IndexAnnotationVisitor(super.visitInsnAnnotation(typeRef, typePath, desc, visible), classIndex);
         }
 
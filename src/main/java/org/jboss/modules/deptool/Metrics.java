@@ -0,0 +1,236 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Timing and resource usage of each stage of a run, and of the indexing of each module.  CPU time and allocated
+ * bytes are those of the measuring thread, as reported by the platform {@link ThreadMXBean}; they are {@code -1}
+ * when the JVM does not support measuring them.
+ */
+final class Metrics {
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private static final boolean cpuTimeSupported = threadMXBean.isCurrentThreadCpuTimeSupported();
+    private static final com.sun.management.ThreadMXBean allocationMXBean = getAllocationMXBean();
+
+    private final List<Measurement> stages = new ArrayList<>();
+    private final List<Measurement> modules = new ArrayList<>();
+
+    Metrics() {
+    }
+
+    private static com.sun.management.ThreadMXBean getAllocationMXBean() {
+        try {
+            if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+                final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadMXBean;
+                if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+                    return bean;
+                }
+            }
+        } catch (LinkageError ignored) {
+            // not a HotSpot-derived JVM
+        }
+        return null;
+    }
+
+    static long currentThreadCpuTime() {
+        return cpuTimeSupported ? threadMXBean.getCurrentThreadCpuTime() : -1L;
+    }
+
+    static long currentThreadAllocatedBytes() {
+        final com.sun.management.ThreadMXBean bean = allocationMXBean;
+        return bean == null ? -1L : bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Start measuring a stage on the current thread.  The caller stops the measurement when the stage is done.
+     *
+     * @param name the stage name
+     * @return the running measurement
+     */
+    Measurement startStage(final String name) {
+        final Measurement measurement = new Measurement(name);
+        stages.add(measurement);
+        measurement.start();
+        return measurement;
+    }
+
+    void addModule(final Measurement measurement) {
+        modules.add(measurement);
+    }
+
+    /**
+     * Add the figures of every module measured so far to a stage.  The CPU time and allocation of the modules are
+     * only added if they were indexed on other threads, since otherwise the stage has measured them already.
+     *
+     * @param stage the stage measurement
+     * @param concurrent {@code true} if the modules were indexed on other threads than the stage
+     */
+    void addModules(final Measurement stage, final boolean concurrent) {
+        for (Measurement module : modules) {
+            stage.addThroughput(module);
+            if (concurrent) {
+                stage.addUsage(module);
+            }
+        }
+    }
+
+    List<Measurement> getStages() {
+        return stages;
+    }
+
+    List<Measurement> getModules() {
+        return modules;
+    }
+
+    /**
+     * Write every stage and then every module as one JSON object per line.
+     *
+     * @param writer the writer to write to
+     * @throws IOException if writing failed
+     */
+    void writeTo(final Writer writer) throws IOException {
+        for (Measurement stage : stages) {
+            stage.writeTo(writer, "stage");
+        }
+        for (Measurement module : modules) {
+            module.writeTo(writer, "module");
+        }
+        writer.flush();
+    }
+
+    /**
+     * The wall time, CPU time, allocated bytes and indexed classes and bytes of one piece of work.  A measurement
+     * may be started and stopped several times, and the figures of measurements taken on other threads may be
+     * added to it; it is only ever updated by one thread at a time.
+     */
+    static final class Measurement {
+        private final String name;
+        private long wallNanos;
+        private long cpuNanos;
+        private long allocatedBytes;
+        private int classCount;
+        private long classBytes;
+        private long startWall;
+        private long startCpu;
+        private long startAllocated;
+
+        Measurement(final String name) {
+            this.name = name;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        void start() {
+            startWall = System.nanoTime();
+            startCpu = currentThreadCpuTime();
+            startAllocated = currentThreadAllocatedBytes();
+        }
+
+        void stop() {
+            wallNanos += System.nanoTime() - startWall;
+            cpuNanos = accumulate(cpuNanos, startCpu, currentThreadCpuTime());
+            allocatedBytes = accumulate(allocatedBytes, startAllocated, currentThreadAllocatedBytes());
+        }
+
+        private static long accumulate(final long total, final long start, final long end) {
+            return total == -1L || start == -1L || end == -1L ? -1L : total + end - start;
+        }
+
+        void addClass(final int length) {
+            classCount++;
+            classBytes += length;
+        }
+
+        /**
+         * Add all of the figures of another measurement, for work which was done in sequence with this one.
+         */
+        void add(final Measurement other) {
+            wallNanos += other.wallNanos;
+            addUsage(other);
+            addThroughput(other);
+        }
+
+        /**
+         * Add the CPU time and allocation of another measurement, for work which was done on another thread while
+         * this one waited for it.
+         */
+        void addUsage(final Measurement other) {
+            cpuNanos = cpuNanos == -1L || other.cpuNanos == -1L ? -1L : cpuNanos + other.cpuNanos;
+            allocatedBytes = allocatedBytes == -1L || other.allocatedBytes == -1L ? -1L : allocatedBytes + other.allocatedBytes;
+        }
+
+        /**
+         * Add the indexed classes and bytes of another measurement.
+         */
+        void addThroughput(final Measurement other) {
+            classCount += other.classCount;
+            classBytes += other.classBytes;
+        }
+
+        long getWallNanos() {
+            return wallNanos;
+        }
+
+        long getCpuNanos() {
+            return cpuNanos;
+        }
+
+        long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        int getClassCount() {
+            return classCount;
+        }
+
+        long getClassBytes() {
+            return classBytes;
+        }
+
+        double getClassesPerSecond() {
+            return wallNanos == 0 ? 0 : classCount * 1e9 / wallNanos;
+        }
+
+        double getBytesPerSecond() {
+            return wallNanos == 0 ? 0 : classBytes * 1e9 / wallNanos;
+        }
+
+        void writeTo(final Writer writer, final String type) throws IOException {
+            writer.write("{\"type\":\"");
+            writer.write(type);
+            writer.write("\",\"name\":");
+            ReportWriter.Format.writeJsonString(writer, name);
+            writer.write(String.format(Locale.ROOT,
+                ",\"wallNanos\":%d,\"cpuNanos\":%d,\"allocatedBytes\":%d,\"classes\":%d,\"classBytes\":%d,\"classesPerSecond\":%.1f,\"bytesPerSecond\":%.1f}\n",
+                Long.valueOf(wallNanos), Long.valueOf(cpuNanos), Long.valueOf(allocatedBytes),
+                Integer.valueOf(classCount), Long.valueOf(classBytes),
+                Double.valueOf(getClassesPerSecond()), Double.valueOf(getBytesPerSecond())));
+        }
+    }
+}
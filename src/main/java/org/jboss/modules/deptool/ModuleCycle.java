@@ -0,0 +1,58 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A set of modules which depend on each other in a cycle: a strongly connected component of the module graph
+ * with more than one module, or a single module which depends on itself.  Every module of a cycle can reach
+ * every other one, so jboss-modules has to link them all together.
+ */
+public final class ModuleCycle {
+    private final List<String> modules;
+    private final Map<String, Map<String, List<String>>> dependencies;
+
+    ModuleCycle(final List<String> modules, final Map<String, Map<String, List<String>>> dependencies) {
+        this.modules = Collections.unmodifiableList(modules);
+        this.dependencies = Collections.unmodifiableMap(dependencies);
+    }
+
+    /**
+     * Get the modules of the cycle.
+     *
+     * @return the module names, in index order (not {@code null})
+     */
+    public List<String> getModules() {
+        return modules;
+    }
+
+    /**
+     * Get the dependencies between the modules of the cycle, along with the packages which justify each one: the
+     * packages visible through the dependency which the depending module references.  A dependency without any
+     * such packages is not needed for class loading, and is the first place to look for breaking the cycle.
+     *
+     * @return the map of module name to the map of dependency name to justifying package names (not {@code null})
+     */
+    public Map<String, Map<String, List<String>>> getDependencies() {
+        return dependencies;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A task which removes the unused dependencies of a single module from its {@code module.xml}, leaving the rest of
+ * the file byte for byte as it was (see {@link ModuleXmlPatcher}).  The new descriptor is written to a temporary
+ * file next to the original, which then atomically replaces it, so an interrupted fix never leaves a truncated
+ * descriptor behind.  In a dry run the descriptor is left alone, and the task produces a unified diff of the
+ * change instead.  Warnings are collected rather than printed, so that a parallel fix reports them in the same
+ * order as a serial one.
+ */
+final class ModuleFixTask extends RecursiveTask<Boolean> {
+    private static final long serialVersionUID = 1L;
+
+    private final String moduleName;
+    private final Path moduleXml;
+    private final Set<String> dependencyNames;
+    private final String diffPath;
+    private final boolean warn;
+    private final List<String> warnings = new ArrayList<>();
+    private Exception failure;
+    private String failureMessage;
+    private int removedCount;
+    private int keptCount;
+    private String diff;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param moduleName the module name
+     * @param moduleXml the descriptor to fix
+     * @param unusedDependencies the dependencies to remove
+     * @param diffPath the path of the descriptor to give in a diff, or {@code null} to rewrite the descriptor
+     * @param warn {@code true} to collect warnings
+     */
+    ModuleFixTask(final String moduleName, final Path moduleXml, final Collection<DependencyInfo> unusedDependencies, final String diffPath, final boolean warn) {
+        this.moduleName = moduleName;
+        this.moduleXml = moduleXml;
+        dependencyNames = new HashSet<>();
+        for (DependencyInfo dependency : unusedDependencies) {
+            dependencyNames.add(dependency.getDependencyModuleIndex().getName());
+        }
+        this.diffPath = diffPath;
+        this.warn = warn;
+    }
+
+    /**
+     * Fix the descriptor.
+     *
+     * @return {@code true} if the descriptor was rewritten (or would be, in a dry run), {@code false} if it was left
+     *     alone
+     */
+    protected Boolean compute() {
+        final byte[] content;
+        try {
+            content = Files.readAllBytes(moduleXml);
+        } catch (IOException e) {
+            failure = e;
+            failureMessage = "Failed to read " + moduleXml;
+            return Boolean.FALSE;
+        }
+        final ModuleXmlPatcher patcher = new ModuleXmlPatcher(content, moduleXml.toString(), warn ? warnings : null);
+        final byte[] patched;
+        try {
+            patched = patcher.removeDependencies(dependencyNames);
+        } catch (IOException e) {
+            failure = e;
+            failureMessage = "Failed to parse " + moduleXml;
+            return Boolean.FALSE;
+        }
+        removedCount = patcher.getRemovedCount();
+        keptCount = patcher.getKeptCount();
+        if (removedCount == 0) {
+            return Boolean.FALSE;
+        }
+        if (diffPath != null) {
+            final StringBuilder b = new StringBuilder();
+            UnifiedDiff.appendDiff(b, diffPath, new String(content, StandardCharsets.UTF_8), new String(patched, StandardCharsets.UTF_8));
+            diff = b.toString();
+            return Boolean.TRUE;
+        }
+        try {
+            replace(moduleXml, patched);
+        } catch (IOException e) {
+            failure = e;
+            failureMessage = "Failed to write " + moduleXml;
+            return Boolean.FALSE;
+        }
+        return Boolean.TRUE;
+    }
+
+    /**
+     * Replace the content of a file by way of a temporary file in the same directory, keeping its permissions.  A
+     * symbolic link is followed, and the file it points to is replaced, so the link stays in place.
+     *
+     * @param path the file to replace, or a symbolic link to it
+     * @param content the new content
+     * @throws IOException if the file could not be replaced; the original is then left as it was
+     */
+    static void replace(final Path path, final byte[] content) throws IOException {
+        final Path file = path.toRealPath();
+        final Path tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tempFile, content);
+            try {
+                Files.setPosixFilePermissions(tempFile, Files.getPosixFilePermissions(file));
+            } catch (UnsupportedOperationException ignored) {
+                // not a POSIX file system; the temporary file has the default permissions
+            }
+            try {
+                Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    String getModuleName() {
+        return moduleName;
+    }
+
+    Path getModuleXml() {
+        return moduleXml;
+    }
+
+    /**
+     * Get the warnings of the task, in the order they came up.  Warnings are only collected if requested.
+     *
+     * @return the warnings (not {@code null})
+     */
+    List<String> getWarnings() {
+        return warnings;
+    }
+
+    Exception getFailure() {
+        return failure;
+    }
+
+    String getFailureMessage() {
+        return failureMessage;
+    }
+
+    int getRemovedCount() {
+        return removedCount;
+    }
+
+    int getKeptCount() {
+        return keptCount;
+    }
+
+    /**
+     * Get the diff of a dry run.
+     *
+     * @return the unified diff, or {@code null} if the descriptor is unchanged or this is not a dry run
+     */
+    String getDiff() {
+        return diff;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.jboss.modules.DependencySpec;
+
+/**
+ * The module dependency graph in compact form, built in linear time from the linked dependents of a
+ * {@link RootIndex}.  Modules and dependency edges are numbered, and the strongly connected components of the
+ * graph are found with Tarjan's algorithm.  The graph is a snapshot: it does not change when the modules are
+ * indexed again.
+ */
+final class ModuleGraph {
+    private final RootIndex rootIndex;
+    private final ModuleIndex[] modules;
+    private final Map<ModuleIndex, Integer> ids;
+    // the dependencies of module i are the edges edgeStarts[i] to edgeStarts[i + 1] - 1
+    private final int[] edgeStarts;
+    private final int[] edgeSources;
+    private final int[] edgeTargets;
+    private final DependencySpec[] edgeSpecs;
+    // components are numbered in reverse topological order: every dependency of a component has a lower number
+    private final int[] components;
+    private final int[][] componentModules;
+
+    ModuleGraph(final RootIndex rootIndex) {
+        this.rootIndex = rootIndex;
+        final int size = rootIndex.getModules().size();
+        modules = rootIndex.getModules().values().toArray(new ModuleIndex[size]);
+        ids = new IdentityHashMap<>(size);
+        for (int i = 0; i < size; i ++) {
+            ids.put(modules[i], Integer.valueOf(i));
+        }
+
+        // turn the dependent lists around into compressed dependency lists
+        edgeStarts = new int[size + 1];
+        int edgeCount = 0;
+        for (ModuleIndex moduleIndex : modules) {
+            for (DependentInfo dependent : moduleIndex.getDependents()) {
+                final Integer id = ids.get(dependent.getDependentModuleIndex());
+                if (id != null) {
+                    edgeStarts[id.intValue() + 1] ++;
+                    edgeCount ++;
+                }
+            }
+        }
+        for (int i = 0; i < size; i ++) {
+            edgeStarts[i + 1] += edgeStarts[i];
+        }
+        edgeSources = new int[edgeCount];
+        edgeTargets = new int[edgeCount];
+        edgeSpecs = new DependencySpec[edgeCount];
+        final int[] fill = Arrays.copyOf(edgeStarts, size);
+        for (int target = 0; target < size; target ++) {
+            for (DependentInfo dependent : modules[target].getDependents()) {
+                final Integer id = ids.get(dependent.getDependentModuleIndex());
+                if (id != null) {
+                    final int edge = fill[id.intValue()] ++;
+                    edgeSources[edge] = id.intValue();
+                    edgeTargets[edge] = target;
+                    edgeSpecs[edge] = dependent.getIncomingDependencySpec();
+                }
+            }
+        }
+
+        components = new int[size];
+        final int componentCount = findComponents();
+        componentModules = new int[componentCount][];
+        final int[] componentSizes = new int[componentCount];
+        for (int i = 0; i < size; i ++) {
+            componentSizes[components[i]] ++;
+        }
+        for (int c = 0; c < componentCount; c ++) {
+            componentModules[c] = new int[componentSizes[c]];
+            componentSizes[c] = 0;
+        }
+        for (int i = 0; i < size; i ++) {
+            final int c = components[i];
+            componentModules[c][componentSizes[c] ++] = i;
+        }
+    }
+
+    /**
+     * Find the strongly connected components with Tarjan's algorithm, iteratively so that long dependency chains
+     * cannot overflow the stack.  Components are numbered in the order they are completed, which is reverse
+     * topological.
+     *
+     * @return the number of components
+     */
+    private int findComponents() {
+        final int size = modules.length;
+        final int[] index = new int[size];
+        final int[] lowLink = new int[size];
+        Arrays.fill(index, -1);
+        final int[] stack = new int[size];
+        final boolean[] onStack = new boolean[size];
+        int stackSize = 0;
+        // the depth first search path, with the next edge to follow from each module on it
+        final int[] path = new int[size];
+        final int[] nextEdge = new int[size];
+        int nextIndex = 0;
+        int componentCount = 0;
+        for (int root = 0; root < size; root ++) {
+            if (index[root] != -1) continue;
+            int depth = 0;
+            path[0] = root;
+            nextEdge[0] = edgeStarts[root];
+            index[root] = lowLink[root] = nextIndex ++;
+            stack[stackSize ++] = root;
+            onStack[root] = true;
+            while (depth >= 0) {
+                final int module = path[depth];
+                if (nextEdge[depth] < edgeStarts[module + 1]) {
+                    final int target = edgeTargets[nextEdge[depth] ++];
+                    if (index[target] == -1) {
+                        index[target] = lowLink[target] = nextIndex ++;
+                        stack[stackSize ++] = target;
+                        onStack[target] = true;
+                        path[++ depth] = target;
+                        nextEdge[depth] = edgeStarts[target];
+                    } else if (onStack[target]) {
+                        lowLink[module] = Math.min(lowLink[module], index[target]);
+                    }
+                    continue;
+                }
+                // every edge is followed; complete the module
+                if (lowLink[module] == index[module]) {
+                    int member;
+                    do {
+                        member = stack[-- stackSize];
+                        onStack[member] = false;
+                        components[member] = componentCount;
+                    } while (member != module);
+                    componentCount ++;
+                }
+                depth --;
+                if (depth >= 0) {
+                    final int parent = path[depth];
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[module]);
+                }
+            }
+        }
+        return componentCount;
+    }
+
+    /**
+     * Get the ID of a module.
+     *
+     * @param moduleName the module or alias name
+     * @return the module ID, or -1 if the module is not in the graph
+     */
+    int getId(final String moduleName) {
+        final ModuleIndex moduleIndex = rootIndex.getModule(moduleName);
+        final Integer id = moduleIndex == null ? null : ids.get(moduleIndex);
+        return id == null ? -1 : id.intValue();
+    }
+
+    int getModuleCount() {
+        return modules.length;
+    }
+
+    ModuleIndex getModuleIndex(final int id) {
+        return modules[id];
+    }
+
+    /**
+     * Get the first dependency edge of a module.  The edges of module {@code id} run up to, but not including,
+     * the first edge of module {@code id + 1}; the module after the last one may be given.
+     *
+     * @param id the module ID
+     * @return the edge number
+     */
+    int getFirstEdge(final int id) {
+        return edgeStarts[id];
+    }
+
+    int getEdgeSource(final int edge) {
+        return edgeSources[edge];
+    }
+
+    int getEdgeTarget(final int edge) {
+        return edgeTargets[edge];
+    }
+
+    DependencySpec getEdgeSpec(final int edge) {
+        return edgeSpecs[edge];
+    }
+
+    int getComponentCount() {
+        return componentModules.length;
+    }
+
+    int getComponent(final int id) {
+        return components[id];
+    }
+
+    /**
+     * Get the modules of a strongly connected component.
+     *
+     * @param component the component number
+     * @return the module IDs (must not be modified)
+     */
+    int[] getComponentModules(final int component) {
+        return componentModules[component];
+    }
+}
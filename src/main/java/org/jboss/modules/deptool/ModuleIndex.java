@@ -1,10 +1,12 @@
 package org.jboss.modules.deptool;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -19,16 +21,24 @@ final class ModuleIndex {
     private final RootIndex rootIndex;
     private final List<DependencySpec> dependencySpecs = new ArrayList<>();
     private final Map<String, ClassIndex> classes = new HashMap<>();
-    private final Map<String, Counter> packageMembers = new HashMap<>();
-    private final Map<String, Counter> classRefs = new HashMap<>();
-    private final Map<String, Counter> packageRefs = new HashMap<>();
+    // class and package IDs from the root index
+    private final IntCounts packageMembers = new IntCounts();
+    private final IntCounts classRefs = new IntCounts();
+    private final IntCounts packageRefs = new IntCounts();
+    // package IDs referenced only through the member class references of supertypes (stage 4)
+    private final BitSet inheritedPackageRefs = new BitSet();
     private final List<DependentInfo> dependents = new ArrayList<>();
     private final List<DependencyInfo> dependencies = new ArrayList<>();
-    private final Map<String, Set<ModuleIndex>> dependencyPaths = new HashMap<>();
-    private final Map<ModuleIndex, Set<String>> pathsByDependency = new HashMap<>();
+    // package IDs imported from any dependency, and from each dependency in the order they were mapped
+    private final BitSet dependencyPaths = new BitSet();
+    private final Map<ModuleIndex, BitSet> pathsByDependency = new LinkedHashMap<>();
+    // package IDs this module makes visible to its dependents: its own, and everything it re-exports (stage 3)
+    private BitSet visiblePackages;
     private final Map<String, Set<String>> serviceImplementations = new HashMap<>();
     private final String name;
     private final Set<ModuleIndex> exports = new HashSet<>();
+    // the string constants of this module which could name a module
+    private final Set<String> strings = new HashSet<>();
     private String mainClass;
 
     ModuleIndex(final RootIndex rootIndex, final String name) {
@@ -41,9 +51,17 @@ final class ModuleIndex {
         classes.put(name, classIndex);
         final int idx = name.lastIndexOf('/');
         if (idx != -1) {
-            String packageName = rootIndex.intern(name.substring(0, idx));
-            Counter.getCounter(packageMembers, packageName).getAndIncrement();
+            packageMembers.add(rootIndex.getPackageId(name.substring(0, idx)), 1);
         }
+        classIndex.getMemberClassRefCounts().forEach(this::doAddClassRef);
+        classIndex.getOtherClassRefCounts().forEach(this::doAddClassRef);
+        // the strings were only held so that the class could be cached; the root index owns them from here
+        for (String str : classIndex.getStrings()) {
+            if (rootIndex.addString(str)) {
+                strings.add(rootIndex.intern(str));
+            }
+        }
+        classIndex.clearStrings();
     }
 
     RootIndex getRootIndex() {
@@ -54,22 +72,26 @@ final class ModuleIndex {
         final RootIndex rootIndex = this.rootIndex;
         className = rootIndex.intern(className.replace('.', '/'));
         mainClass = className;
-        doAddClassRef(className, rootIndex);
+        doAddClassRef(rootIndex.getClassId(className), 1);
     }
 
     void addClassRef(String className) {
-        final RootIndex rootIndex = this.rootIndex;
-        className = rootIndex.intern(className.replace('.', '/'));
-        doAddClassRef(className, rootIndex);
+        doAddClassRef(rootIndex.getClassId(className.replace('.', '/')), 1);
     }
 
-    private void doAddClassRef(final String className, final RootIndex rootIndex) {
-        final int idx = className.lastIndexOf('/');
-        if (idx != -1) {
-            String packageName = rootIndex.intern(className.substring(0, idx));
-            Counter.getCounter(packageRefs, packageName).getAndIncrement();
+    void addInheritedClassRef(int classId) {
+        final int packageId = rootIndex.getClassPackageId(classId);
+        if (packageId != -1) {
+            inheritedPackageRefs.set(packageId);
         }
-        Counter.getCounter(classRefs, className).getAndIncrement();
+    }
+
+    private void doAddClassRef(final int classId, final int count) {
+        final int packageId = rootIndex.getClassPackageId(classId);
+        if (packageId != -1) {
+            packageRefs.add(packageId, count);
+        }
+        classRefs.add(classId, count);
     }
 
     String getName() {
@@ -77,11 +99,47 @@ final class ModuleIndex {
     }
 
     Collection<String> getPackageReferences() {
-        return packageRefs.keySet();
+        return getPackageNames(getPackageReferenceIds());
+    }
+
+    /**
+     * Get the packages referenced by this module, including those referenced through the supertypes of its classes
+     * once they have been linked.
+     *
+     * @return a new bit set of the referenced package IDs
+     */
+    BitSet getPackageReferenceIds() {
+        final BitSet packageIds = packageRefs.keySet();
+        packageIds.or(inheritedPackageRefs);
+        return packageIds;
+    }
+
+    Set<String> getStrings() {
+        return strings;
     }
 
     Collection<String> getIncludedPackages() {
-        return packageMembers.keySet();
+        return getPackageNames(packageMembers);
+    }
+
+    IntCounts getIncludedPackageIds() {
+        return packageMembers;
+    }
+
+    private Collection<String> getPackageNames(final IntCounts packageIds) {
+        final List<String> names = new ArrayList<>(packageIds.size());
+        for (int packageId : packageIds.keys()) {
+            names.add(rootIndex.getPackageName(packageId));
+        }
+        return names;
+    }
+
+    private Collection<String> getPackageNames(final BitSet packageIds) {
+        final List<String> names = new ArrayList<>(packageIds.cardinality());
+        for (int packageId = packageIds.nextSetBit(0); packageId >= 0; packageId = packageIds.nextSetBit(packageId + 1)) {
+            names.add(rootIndex.getPackageName(packageId));
+        }
+        return names;
     }
 
     void addDependency(DependencySpec spec) {
@@ -106,26 +164,74 @@ final class ModuleIndex {
         return dependents;
     }
 
-    Set<String> getDependencyPaths() {
-        return dependencyPaths.keySet();
+    void clearDependents() {
+        dependents.clear();
     }
 
-    int mapDependencyPackages(final Collection<String> paths, final ModuleIndex target, final DependencySpec dependencySpec) {
-        int cnt = 0;
+    BitSet getVisiblePackageIds() {
+        return visiblePackages;
+    }
+
+    void setVisiblePackageIds(final BitSet visiblePackages) {
+        this.visiblePackages = visiblePackages;
+    }
+
+    Collection<String> getDependencyPaths() {
+        return getPackageNames(dependencyPaths);
+    }
+
+    BitSet getDependencyPathIds() {
+        return dependencyPaths;
+    }
+
+    int mapDependencyPackages(final BitSet paths, final ModuleIndex target, final DependencySpec dependencySpec) {
         dependencies.add(new DependencyInfo(target, dependencySpec));
-        for (String path : paths) {
-            Set<ModuleIndex> set = dependencyPaths.computeIfAbsent(path, k -> new LinkedHashSet<>());
-            if (set.add(target)) {
-                cnt++;
-            }
+        BitSet set = pathsByDependency.get(target);
+        if (set == null) {
+            pathsByDependency.put(target, set = new BitSet());
         }
-        Set<String> set = pathsByDependency.computeIfAbsent(target, k -> new HashSet<>());
-        set.addAll(paths);
-        return cnt;
+        final int cnt = set.cardinality();
+        set.or(paths);
+        dependencyPaths.or(paths);
+        return set.cardinality() - cnt;
     }
 
-    Set<String> getPathsByDependency(ModuleIndex dependency) {
-        return pathsByDependency.getOrDefault(dependency, Collections.emptySet());
+    Collection<String> getPathsByDependency(ModuleIndex dependency) {
+        final BitSet set = pathsByDependency.get(dependency);
+        return set == null ? Collections.emptyList() : getPackageNames(set);
+    }
+
+    /**
+     * Get the packages visible through a dependency which this module actually references.
+     *
+     * @param dependency the dependency module
+     * @return the referenced package names (not {@code null})
+     */
+    Collection<String> getReferencedPathsByDependency(ModuleIndex dependency) {
+        final BitSet set = pathsByDependency.get(dependency);
+        if (set == null) {
+            return Collections.emptyList();
+        }
+        final BitSet referenced = getPackageReferenceIds();
+        referenced.and(set);
+        return getPackageNames(referenced);
+    }
+
+    /**
+     * Get the dependency modules which provide at least one package referenced by this module.  This is one bit set
+     * intersection per dependency, rather than a scan of the package references.
+     *
+     * @return the referenced dependency modules
+     */
+    Set<ModuleIndex> getReferencedDependencyModules() {
+        final Set<ModuleIndex> referenced = new HashSet<>();
+        final BitSet referencedPackages = getPackageReferenceIds();
+        for (Map.Entry<ModuleIndex, BitSet> entry : pathsByDependency.entrySet()) {
+            if (entry.getValue().intersects(referencedPackages)) {
+                referenced.add(entry.getKey());
+            }
+        }
+        return referenced;
     }
 
     Set<ModuleIndex> getDependencyModules() {
@@ -140,11 +246,13 @@ final class ModuleIndex {
         ClassIndex classIndex = classes.get(className);
         if (classIndex == null && includeDependencies) {
             final int idx = className.lastIndexOf('/');
-            if (idx != -1) {
-                final Set<ModuleIndex> dependencies = dependencyPaths.get(className.substring(0, idx));
-                if (dependencies != null) for (ModuleIndex dependency : dependencies) {
-                    classIndex = dependency.getClassInfo(className, false);
-                    if (classIndex != null) return classIndex;
+            final int packageId = idx == -1 ? -1 : rootIndex.findPackageId(className.substring(0, idx));
+            if (packageId != -1 && dependencyPaths.get(packageId)) {
+                for (Map.Entry<ModuleIndex, BitSet> entry : pathsByDependency.entrySet()) {
+                    if (entry.getValue().get(packageId)) {
+                        classIndex = entry.getKey().getClassInfo(className, false);
+                        if (classIndex != null) return classIndex;
+                    }
                 }
             }
         }
@@ -170,4 +278,20 @@ final class ModuleIndex {
     Collection<ClassIndex> getClasses() {
         return classes.values();
     }
+
+    /**
+     * Discard everything stages 3 and 4 added to this module and its classes, so that the module can be linked
+     * again after the modules it depends on changed.
+     */
+    void unlink() {
+        visiblePackages = null;
+        dependencies.clear();
+        dependencyPaths.clear();
+        pathsByDependency.clear();
+        exports.clear();
+        inheritedPackageRefs.clear();
+        for (ClassIndex classIndex : classes.values()) {
+            classIndex.unlink();
+        }
+    }
 }
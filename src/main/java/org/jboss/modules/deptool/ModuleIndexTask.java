@@ -0,0 +1,189 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import org.jboss.modules.AliasModuleSpec;
+import org.jboss.modules.ConcreteModuleSpec;
+import org.jboss.modules.DependencySpec;
+import org.jboss.modules.IterableResourceLoader;
+import org.jboss.modules.LocalModuleFinder;
+import org.jboss.modules.Module;
+import org.jboss.modules.ModuleLoadException;
+import org.jboss.modules.ModuleSpec;
+import org.jboss.modules.ResourceLoader;
+import org.jboss.modules.ResourceLoaderSpec;
+
+/**
+ * A task which loads and indexes a single module.  When run inside of a fork/join pool, the resource roots
+ * of the module are indexed in parallel; otherwise they are indexed one after another on the calling thread.
+ * Either way the roots are merged into the module index in declaration order, so the result is the same.
+ */
+final class ModuleIndexTask extends RecursiveTask<ModuleIndex> {
+    private static final long serialVersionUID = 1L;
+
+    private final LocalModuleFinder moduleFinder;
+    private final RootIndex rootIndex;
+    private final String moduleName;
+    private final IndexCache cache;
+    private final ScanMode scanMode;
+    private final Metrics.Measurement measurement;
+    private AliasModuleSpec aliasModuleSpec;
+    private Exception failure;
+    private int resourceRootCount;
+    private int cachedResourceRootCount;
+    private int classCount;
+    private int serviceFileCount;
+    private int serviceReferenceCount;
+    private int dependencyCount;
+
+    ModuleIndexTask(final LocalModuleFinder moduleFinder, final RootIndex rootIndex, final String moduleName, final IndexCache cache, final ScanMode scanMode) {
+        this.moduleFinder = moduleFinder;
+        this.rootIndex = rootIndex;
+        this.moduleName = moduleName;
+        this.cache = cache;
+        this.scanMode = scanMode;
+        measurement = new Metrics.Measurement(moduleName);
+    }
+
+    protected ModuleIndex compute() {
+        measurement.start();
+        try {
+            final ModuleSpec moduleSpec = moduleFinder.findModule(moduleName, Module.getBootModuleLoader());
+            if (moduleSpec instanceof ConcreteModuleSpec) {
+                return indexModule((ConcreteModuleSpec) moduleSpec);
+            } else if (moduleSpec instanceof AliasModuleSpec) {
+                aliasModuleSpec = (AliasModuleSpec) moduleSpec;
+            }
+            return null;
+        } catch (ModuleLoadException | IOException e) {
+            failure = e;
+            return null;
+        } finally {
+            measurement.stop();
+        }
+    }
+
+    private ModuleIndex indexModule(final ConcreteModuleSpec concreteModuleSpec) throws IOException {
+        final ResourceLoaderSpec[] resourceLoaderSpecs = (ResourceLoaderSpec[]) Main.call(Main.getResourceLoaders, concreteModuleSpec);
+        final ModuleIndex moduleIndex = new ModuleIndex(rootIndex, moduleName);
+        final String mainClass = concreteModuleSpec.getMainClass();
+        if (mainClass != null) moduleIndex.setMainClass(mainClass);
+        final List<ResourceRootIndexTask> rootTasks = new ArrayList<>(resourceLoaderSpecs.length);
+        for (ResourceLoaderSpec resourceLoaderSpec : resourceLoaderSpecs) {
+            ResourceLoader resourceLoader = (ResourceLoader) Main.call(Main.getResourceLoader, resourceLoaderSpec);
+            if (resourceLoader instanceof IterableResourceLoader) {
+                rootTasks.add(new ResourceRootIndexTask(moduleIndex, (IterableResourceLoader) resourceLoader, cache, scanMode));
+            } else {
+                // ignoring non-iterable RL
+            }
+        }
+        // the roots measure themselves, possibly on other threads; do not count their work twice
+        measurement.stop();
+        if (ForkJoinTask.inForkJoinPool()) {
+            invokeAll(rootTasks);
+        } else for (ResourceRootIndexTask rootTask : rootTasks) {
+            rootTask.invoke();
+        }
+        measurement.start();
+        for (ResourceRootIndexTask rootTask : rootTasks) {
+            final ResourceRootIndex resourceRootIndex = rootTask.join();
+            if (rootTask.getFailure() != null) {
+                throw rootTask.getFailure();
+            }
+            measurement.add(rootTask.getMeasurement());
+            resourceRootCount++;
+            if (resourceRootIndex.isCached()) cachedResourceRootCount++;
+            classCount += resourceRootIndex.getClasses().size();
+            serviceFileCount += resourceRootIndex.getServiceFileCount();
+            serviceReferenceCount += resourceRootIndex.getServiceReferenceCount();
+            resourceRootIndex.mergeInto(moduleIndex);
+        }
+        for (DependencySpec dependency : concreteModuleSpec.getDependencies()) {
+            dependencyCount++;
+            moduleIndex.addDependency(dependency);
+        }
+        return moduleIndex;
+    }
+
+    /**
+     * Get the result of this task, waiting for it to complete if needed.
+     *
+     * @return the module index, or {@code null} if the module was not found or is an alias
+     * @throws IOException if reading a resource root failed
+     * @throws ModuleLoadException if the module could not be loaded
+     */
+    ModuleIndex getModuleIndex() throws IOException, ModuleLoadException {
+        final ModuleIndex moduleIndex = join();
+        final Exception failure = this.failure;
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof ModuleLoadException) {
+            throw (ModuleLoadException) failure;
+        }
+        return moduleIndex;
+    }
+
+    /**
+     * Get the measurement of this task, including the work of each of its resource roots.  The wall time is the sum
+     * of the wall time of each part, so with several threads it may exceed the time the module took to index.
+     *
+     * @return the measurement
+     */
+    Metrics.Measurement getMeasurement() {
+        return measurement;
+    }
+
+    String getModuleName() {
+        return moduleName;
+    }
+
+    AliasModuleSpec getAliasModuleSpec() {
+        return aliasModuleSpec;
+    }
+
+    int getResourceRootCount() {
+        return resourceRootCount;
+    }
+
+    int getCachedResourceRootCount() {
+        return cachedResourceRootCount;
+    }
+
+    int getClassCount() {
+        return classCount;
+    }
+
+    int getServiceFileCount() {
+        return serviceFileCount;
+    }
+
+    int getServiceReferenceCount() {
+        return serviceReferenceCount;
+    }
+
+    int getDependencyCount() {
+        return dependencyCount;
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Removes dependencies from a {@code module.xml} in place.  The descriptor is tokenized in a single pass over its
+ * raw bytes, which finds the children of the {@code <dependencies>} element by offset; the unused {@code <module>}
+ * elements are then spliced out along with the comments and whitespace leading up to them.  Every other byte of
+ * the descriptor is copied unchanged, so the edit is as small as it can be.
+ * <p>
+ * The markup is assumed to be in an ASCII-compatible encoding such as UTF-8, which is what {@code module.xml}
+ * files use.  Elements are matched by qualified name, using the prefix of the root element, rather than by
+ * namespace URI.
+ */
+final class ModuleXmlPatcher {
+    private static final int TEXT = 0;
+    private static final int COMMENT = 1;
+    private static final int INSTRUCTION = 2;
+    private static final int ELEMENT = 3;
+
+    private final byte[] content;
+    private final String source;
+    private final List<String> warnings;
+    // the children of <dependencies>: kind, start offset and end offset of each
+    private int[] children = new int[48];
+    private int childCount;
+    private final List<String> childNames = new ArrayList<>();
+    private boolean foundDependencies;
+    private int removedCount;
+    private int keptCount;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param content the descriptor bytes
+     * @param source the descriptor path, for messages
+     * @param warnings the list to add warnings to, or {@code null} to not report any
+     */
+    ModuleXmlPatcher(final byte[] content, final String source, final List<String> warnings) {
+        this.content = content;
+        this.source = source;
+        this.warnings = warnings;
+    }
+
+    /**
+     * Remove the named module dependencies.  A dependency which is preceded by a {@code <!-- keep -->} comment
+     * (with nothing but text, comments and processing instructions in between) is left alone.
+     *
+     * @param dependencyNames the names of the dependencies to remove
+     * @return the patched descriptor, or the original array if nothing was removed
+     * @throws IOException if the descriptor is malformed
+     */
+    byte[] removeDependencies(final Set<String> dependencyNames) throws IOException {
+        scan();
+        if (! foundDependencies) {
+            warn("Unexpected missing <dependencies> element");
+            return content;
+        }
+        final int[] children = this.children;
+        // spans to remove, as start and end offsets in ascending order
+        final int[] spans = new int[childCount * 2];
+        int spanCount = 0;
+        child: for (int i = 0; i < childCount; i ++) {
+            final String name = childNames.get(i);
+            if (name == null || ! dependencyNames.contains(name)) continue;
+            // see if it's marked "keep"
+            for (int j = i - 1; j >= 0; j --) {
+                final int kind = children[j * 3];
+                if (kind == COMMENT && isKeep(children[j * 3 + 1], children[j * 3 + 2])) {
+                    warn("Explicitly preserving dependency " + name + " in " + source);
+                    keptCount ++;
+                    continue child;
+                } else if (kind == ELEMENT) {
+                    break;
+                }
+            }
+            int start = children[i * 3 + 1];
+            for (int j = i - 1; j >= 0; j --) {
+                final int kind = children[j * 3];
+                if (kind == TEXT) {
+                    if (! isBlank(children[j * 3 + 1], children[j * 3 + 2])) {
+                        warn("Removed extra text around dependency " + name + " in " + source);
+                    }
+                } else if (kind != COMMENT) {
+                    break;
+                }
+                start = children[j * 3 + 1];
+            }
+            spans[spanCount * 2] = start;
+            spans[spanCount * 2 + 1] = children[i * 3 + 2];
+            spanCount ++;
+            removedCount ++;
+        }
+        if (spanCount == 0) {
+            return content;
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(content.length);
+        int pos = 0;
+        for (int i = 0; i < spanCount; i ++) {
+            out.write(content, pos, spans[i * 2] - pos);
+            pos = spans[i * 2 + 1];
+        }
+        out.write(content, pos, content.length - pos);
+        return out.toByteArray();
+    }
+
+    int getRemovedCount() {
+        return removedCount;
+    }
+
+    int getKeptCount() {
+        return keptCount;
+    }
+
+    private void warn(final String message) {
+        if (warnings != null) warnings.add(message);
+    }
+
+    /**
+     * Tokenize the whole descriptor, recording the children of the first {@code <dependencies>} element of the
+     * root element.
+     */
+    private void scan() throws IOException {
+        final byte[] content = this.content;
+        final int length = content.length;
+        if (length >= 2 && (content[0] == (byte) 0xfe || content[0] == (byte) 0xff || content[0] == 0 || content[1] == 0)) {
+            throw new IOException("Unsupported encoding (only ASCII-compatible encodings are supported)");
+        }
+        String prefix = null;
+        int depth = 0;
+        boolean inDependencies = false;
+        // the child element of <dependencies> which is open, if any
+        int openChild = -1;
+        int pos = 0;
+        while (pos < length) {
+            final int start = pos;
+            if (content[pos] != '<') {
+                pos = indexOf(content, (byte) '<', pos);
+                if (pos == -1) pos = length;
+                if (inDependencies && depth == 2) addChild(TEXT, start, pos, null);
+            } else if (startsWith(content, pos, "<!--")) {
+                pos = end(content, pos + 4, "-->", "comment");
+                if (inDependencies && depth == 2) addChild(COMMENT, start, pos, null);
+            } else if (startsWith(content, pos, "<![CDATA[")) {
+                pos = end(content, pos + 9, "]]>", "CDATA section");
+                if (inDependencies && depth == 2) addChild(TEXT, start, pos, null);
+            } else if (startsWith(content, pos, "<?")) {
+                pos = end(content, pos + 2, "?>", "processing instruction");
+                if (inDependencies && depth == 2) addChild(INSTRUCTION, start, pos, null);
+            } else if (startsWith(content, pos, "<!")) {
+                pos = skipDeclaration(content, pos + 2);
+            } else if (startsWith(content, pos, "</")) {
+                pos = end(content, pos + 2, ">", "end tag");
+                depth --;
+                if (depth < 0) {
+                    throw new IOException("Unexpected end tag at offset " + start);
+                }
+                if (inDependencies) {
+                    if (depth == 2 && openChild != -1) {
+                        children[openChild * 3 + 2] = pos;
+                        openChild = -1;
+                    } else if (depth == 1) {
+                        // the end of <dependencies>; nothing else is of interest
+                        return;
+                    }
+                }
+            } else {
+                // a start tag
+                int i = pos + 1;
+                while (i < length && ! isNameEnd(content[i])) i ++;
+                final String tagName = new String(content, pos + 1, i - pos - 1, StandardCharsets.UTF_8);
+                String nameAttribute = null;
+                boolean empty = false;
+                for (;;) {
+                    while (i < length && isSpace(content[i])) i ++;
+                    if (i >= length) {
+                        throw new IOException("Unterminated start tag at offset " + start);
+                    }
+                    if (content[i] == '>') {
+                        i ++;
+                        break;
+                    } else if (content[i] == '/') {
+                        if (i + 1 >= length || content[i + 1] != '>') {
+                            throw new IOException("Malformed start tag at offset " + start);
+                        }
+                        empty = true;
+                        i += 2;
+                        break;
+                    }
+                    final int attributeStart = i;
+                    while (i < length && content[i] != '=' && ! isSpace(content[i])) i ++;
+                    final int attributeEnd = i;
+                    while (i < length && isSpace(content[i])) i ++;
+                    if (i >= length || content[i] != '=') {
+                        throw new IOException("Malformed attribute at offset " + attributeStart);
+                    }
+                    i ++;
+                    while (i < length && isSpace(content[i])) i ++;
+                    if (i >= length || content[i] != '"' && content[i] != '\'') {
+                        throw new IOException("Malformed attribute at offset " + attributeStart);
+                    }
+                    final int valueEnd = indexOf(content, content[i], i + 1);
+                    if (valueEnd == -1) {
+                        throw new IOException("Unterminated attribute value at offset " + attributeStart);
+                    }
+                    if (attributeEnd - attributeStart == 4 && startsWith(content, attributeStart, "name")) {
+                        nameAttribute = decode(content, i + 1, valueEnd);
+                    }
+                    i = valueEnd + 1;
+                }
+                pos = i;
+                if (depth == 0) {
+                    final int colon = tagName.indexOf(':');
+                    prefix = colon == -1 ? "" : tagName.substring(0, colon + 1);
+                } else if (depth == 1 && ! foundDependencies && tagName.equals(prefix + "dependencies")) {
+                    foundDependencies = true;
+                    if (empty) return;
+                    inDependencies = true;
+                } else if (inDependencies && depth == 2) {
+                    addChild(ELEMENT, start, pos, tagName.equals(prefix + "module") ? nameAttribute : null);
+                    if (! empty) openChild = childCount - 1;
+                }
+                if (! empty) depth ++;
+            }
+        }
+        if (inDependencies) {
+            throw new IOException("Unterminated <dependencies> element");
+        }
+    }
+
+    private void addChild(final int kind, final int start, final int end, final String name) {
+        int[] children = this.children;
+        final int idx = childCount * 3;
+        if (idx == children.length) {
+            children = this.children = Arrays.copyOf(children, idx * 2);
+        }
+        children[idx] = kind;
+        children[idx + 1] = start;
+        children[idx + 2] = end;
+        childNames.add(name);
+        childCount ++;
+    }
+
+    private boolean isKeep(final int start, final int end) {
+        // the comment body, between "<!--" and "-->"
+        return new String(content, start + 4, end - start - 7, StandardCharsets.UTF_8).trim().toLowerCase(Locale.ROOT).equals("keep");
+    }
+
+    private boolean isBlank(final int start, final int end) {
+        for (int i = start; i < end; i ++) {
+            if (! isSpace(content[i])) return false;
+        }
+        return true;
+    }
+
+    private static int end(final byte[] content, final int pos, final String terminator, final String what) throws IOException {
+        final int length = content.length - terminator.length();
+        for (int i = pos; i <= length; i ++) {
+            if (startsWith(content, i, terminator)) return i + terminator.length();
+        }
+        throw new IOException("Unterminated " + what + " at offset " + pos);
+    }
+
+    /**
+     * Skip a markup declaration such as {@code <!DOCTYPE>}, including any internal subset.
+     */
+    private static int skipDeclaration(final byte[] content, int pos) throws IOException {
+        final int start = pos;
+        int brackets = 0;
+        byte quote = 0;
+        while (pos < content.length) {
+            final byte b = content[pos++];
+            if (quote != 0) {
+                if (b == quote) quote = 0;
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '[') {
+                brackets ++;
+            } else if (b == ']') {
+                brackets --;
+            } else if (b == '>' && brackets == 0) {
+                return pos;
+            }
+        }
+        throw new IOException("Unterminated declaration at offset " + start);
+    }
+
+    private static String decode(final byte[] content, final int start, final int end) {
+        final String value = new String(content, start, end - start, StandardCharsets.UTF_8);
+        if (value.indexOf('&') == -1) {
+            return value;
+        }
+        final StringBuilder b = new StringBuilder(value.length());
+        int i = 0;
+        while (i < value.length()) {
+            final char c = value.charAt(i);
+            final int semi = c == '&' ? value.indexOf(';', i) : -1;
+            if (semi == -1) {
+                b.append(c);
+                i ++;
+                continue;
+            }
+            final String entity = value.substring(i + 1, semi);
+            if (entity.equals("amp")) b.append('&');
+            else if (entity.equals("lt")) b.append('<');
+            else if (entity.equals("gt")) b.append('>');
+            else if (entity.equals("quot")) b.append('"');
+            else if (entity.equals("apos")) b.append('\'');
+            else if (isCharacterReference(entity)) b.appendCodePoint(parseCharacterReference(entity));
+            else b.append(value, i, semi + 1);
+            i = semi + 1;
+        }
+        return b.toString();
+    }
+
+    private static boolean isCharacterReference(final String entity) {
+        return entity.startsWith("#") && Character.isValidCodePoint(parseCharacterReference(entity));
+    }
+
+    private static int parseCharacterReference(final String entity) {
+        final boolean hex = entity.startsWith("#x");
+        final int start = hex ? 2 : 1;
+        // at most 0x10FFFF, so anything longer than seven digits is invalid and must not overflow
+        if (entity.length() == start || entity.length() - start > 7) return -1;
+        int codePoint = 0;
+        for (int i = start; i < entity.length(); i ++) {
+            final int digit = Character.digit(entity.charAt(i), hex ? 16 : 10);
+            if (digit == -1) return -1;
+            codePoint = codePoint * (hex ? 16 : 10) + digit;
+        }
+        return codePoint;
+    }
+
+    private static int indexOf(final byte[] content, final byte b, final int from) {
+        for (int i = from; i < content.length; i ++) {
+            if (content[i] == b) return i;
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(final byte[] content, final int pos, final String prefix) {
+        final int length = prefix.length();
+        if (pos + length > content.length) return false;
+        for (int i = 0; i < length; i ++) {
+            if (content[pos + i] != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isSpace(final byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private static boolean isNameEnd(final byte b) {
+        return isSpace(b) || b == '>' || b == '/';
+    }
+}
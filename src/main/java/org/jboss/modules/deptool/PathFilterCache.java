@@ -0,0 +1,152 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.jboss.modules.filter.PathFilter;
+
+/**
+ * A cache of path filter decisions over the package IDs of a root index.  Filters are keyed by identity, so the
+ * shared filter instances used by most dependency specs are only ever asked about each package once.  Not thread
+ * safe.
+ */
+final class PathFilterCache {
+    private final RootIndex rootIndex;
+    private final Map<PathFilter, Decisions> decisions = new IdentityHashMap<>();
+    private int hits;
+    private int misses;
+
+    PathFilterCache(final RootIndex rootIndex) {
+        this.rootIndex = rootIndex;
+    }
+
+    /**
+     * Determine whether a filter accepts a package.
+     *
+     * @param filter the filter
+     * @param packageId the package ID
+     * @return {@code true} if the package is accepted
+     */
+    boolean accept(final PathFilter filter, final int packageId) {
+        return getDecisions(filter).accept(packageId);
+    }
+
+    /**
+     * Remove every package which a filter does not accept from a set.  Only the packages the filter has not been
+     * asked about yet are passed to it; the rest of the set is filtered word by word.
+     *
+     * @param filter the filter
+     * @param packageIds the package IDs to filter in place
+     */
+    void retainAccepted(final PathFilter filter, final BitSet packageIds) {
+        final Decisions decisions = getDecisions(filter);
+        final BitSet undecided = decisions.getUndecided(packageIds);
+        for (int packageId = undecided.nextSetBit(0); packageId >= 0; packageId = undecided.nextSetBit(packageId + 1)) {
+            decisions.decide(packageId);
+        }
+        packageIds.and(decisions.accepted);
+    }
+
+    /**
+     * Determine whether a filter accepts any package of a set, deciding packages only until one is accepted.
+     *
+     * @param filter the filter
+     * @param packageIds the package IDs
+     * @return {@code true} if at least one package is accepted
+     */
+    boolean acceptsAny(final PathFilter filter, final BitSet packageIds) {
+        final Decisions decisions = getDecisions(filter);
+        if (decisions.accepted.intersects(packageIds)) {
+            hits++;
+            return true;
+        }
+        // every package of the set which was decided before was rejected
+        final BitSet undecided = decisions.getUndecided(packageIds);
+        for (int packageId = undecided.nextSetBit(0); packageId >= 0; packageId = undecided.nextSetBit(packageId + 1)) {
+            if (decisions.decide(packageId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forget every filter, so that the filters of modules which were re-indexed are not kept alive.
+     */
+    void clear() {
+        decisions.clear();
+    }
+
+    int getHitCount() {
+        return hits;
+    }
+
+    int getMissCount() {
+        return misses;
+    }
+
+    private Decisions getDecisions(final PathFilter filter) {
+        Decisions decisions = this.decisions.get(filter);
+        if (decisions == null) {
+            this.decisions.put(filter, decisions = new Decisions(filter));
+        }
+        return decisions;
+    }
+
+    private final class Decisions {
+        private final PathFilter filter;
+        private final BitSet decided = new BitSet();
+        private final BitSet accepted = new BitSet();
+
+        Decisions(final PathFilter filter) {
+            this.filter = filter;
+        }
+
+        boolean accept(final int packageId) {
+            if (decided.get(packageId)) {
+                hits++;
+                return accepted.get(packageId);
+            }
+            return decide(packageId);
+        }
+
+        /**
+         * Get the packages of a set which have not been decided yet, counting the others as hits.
+         */
+        BitSet getUndecided(final BitSet packageIds) {
+            final BitSet undecided = (BitSet) packageIds.clone();
+            undecided.andNot(decided);
+            hits += packageIds.cardinality() - undecided.cardinality();
+            return undecided;
+        }
+
+        boolean decide(final int packageId) {
+            misses++;
+            decided.set(packageId);
+            if (filter.accept(rootIndex.getPackageName(packageId))) {
+                accepted.set(packageId);
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.modules.DependencySpec;
+import org.jboss.modules.ModuleDependencySpec;
+
+/**
+ * Pushes package information down the dependent graph.  The set of packages each module makes visible to its
+ * dependents (its own packages plus everything it re-exports) is computed as a fixpoint: a module is only
+ * revisited when its set grows, and only the newly added packages are pushed on to its dependents.  Once the
+ * sets are stable, each dependency edge is mapped in the order the dependencies are declared, which is also
+ * the order in which the module class loader would search them.
+ * <p>
+ * Package sets are bit sets over the package IDs of the root index, and filter decisions come from a
+ * {@link PathFilterCache}, so pushing packages along an edge is a handful of word-wide operations.
+ * <p>
+ * The visible set of each module is kept on the module, so that propagation can be redone for just some modules,
+ * as long as those include every dependent of each of them.  The visible sets of the other modules do not depend
+ * on the redone modules and are pushed into them as they are.
+ */
+final class PathPropagator {
+    private final RootIndex rootIndex;
+    private final Map<ModuleIndex, BitSet> pending = new HashMap<>();
+    private final ArrayDeque<ModuleIndex> worklist = new ArrayDeque<>();
+    private final PathFilterCache filterCache;
+
+    PathPropagator(final RootIndex rootIndex) {
+        this.rootIndex = rootIndex;
+        this.filterCache = rootIndex.getPathFilterCache();
+    }
+
+    /**
+     * Compute the dependency paths and exports of every module in the root index.
+     *
+     * @return the number of dependency edges which import at least one package
+     */
+    int propagate() {
+        return propagate(rootIndex.getModules().values(), null);
+    }
+
+    /**
+     * Compute the dependency paths and exports of some modules of the root index again.  The modules must have been
+     * unlinked, and the other modules must be linked.
+     *
+     * @param modules the modules, which must include every dependent of each of them
+     * @return the number of dependency edges of the modules which import at least one package
+     */
+    int propagate(final Set<ModuleIndex> modules) {
+        return propagate(modules, modules);
+    }
+
+    private int propagate(final Collection<ModuleIndex> modules, final Set<ModuleIndex> partial) {
+        for (ModuleIndex moduleIndex : modules) {
+            final BitSet included = moduleIndex.getIncludedPackageIds().keySet();
+            moduleIndex.setVisiblePackageIds(included);
+            if (! included.isEmpty()) {
+                pending.put(moduleIndex, (BitSet) included.clone());
+                worklist.add(moduleIndex);
+            }
+        }
+        if (partial != null) {
+            // the edges from the other modules are pushed once, since their visible sets are final
+            for (ModuleIndex dependent : modules) {
+                for (DependencySpec dependencySpec : dependent.getDependencySpecs()) {
+                    if (dependencySpec instanceof ModuleDependencySpec) {
+                        final ModuleIndex dependency = rootIndex.getModule(((ModuleDependencySpec) dependencySpec).getName());
+                        if (dependency != null && ! partial.contains(dependency)) {
+                            push(dependency.getVisiblePackageIds(), dependent, dependencySpec);
+                        }
+                    }
+                }
+            }
+        }
+        ModuleIndex moduleIndex;
+        while ((moduleIndex = worklist.poll()) != null) {
+            final BitSet added = pending.remove(moduleIndex);
+            for (DependentInfo dependentInfo : moduleIndex.getDependents()) {
+                push(added, dependentInfo.getDependentModuleIndex(), dependentInfo.getIncomingDependencySpec());
+            }
+        }
+        int edges = 0;
+        for (ModuleIndex dependent : modules) {
+            for (DependencySpec dependencySpec : dependent.getDependencySpecs()) {
+                if (dependencySpec instanceof ModuleDependencySpec) {
+                    final ModuleIndex dependency = rootIndex.getModule(((ModuleDependencySpec) dependencySpec).getName());
+                    if (dependency != null && mapDependency(dependent, dependency, dependencySpec)) {
+                        edges++;
+                    }
+                }
+            }
+        }
+        return edges;
+    }
+
+    private void push(final BitSet added, final ModuleIndex dependent, final DependencySpec dependencySpec) {
+        final BitSet dependentVisible = dependent.getVisiblePackageIds();
+        final BitSet accepted = (BitSet) added.clone();
+        accepted.andNot(dependentVisible);
+        filterCache.retainAccepted(dependencySpec.getImportFilter(), accepted);
+        filterCache.retainAccepted(dependencySpec.getExportFilter(), accepted);
+        if (accepted.isEmpty()) {
+            return;
+        }
+        dependentVisible.or(accepted);
+        final BitSet dependentPending = pending.get(dependent);
+        if (dependentPending == null) {
+            pending.put(dependent, accepted);
+            worklist.add(dependent);
+        } else {
+            dependentPending.or(accepted);
+        }
+    }
+
+    private boolean mapDependency(final ModuleIndex dependent, final ModuleIndex dependency, final DependencySpec dependencySpec) {
+        final BitSet imported = (BitSet) dependency.getVisiblePackageIds().clone();
+        filterCache.retainAccepted(dependencySpec.getImportFilter(), imported);
+        if (imported.isEmpty()) {
+            return false;
+        }
+        dependent.mapDependencyPackages(imported, dependency, dependencySpec);
+        if (filterCache.acceptsAny(dependencySpec.getExportFilter(), imported)) {
+            dependent.addExportedModule(dependency);
+        }
+        return true;
+    }
+}
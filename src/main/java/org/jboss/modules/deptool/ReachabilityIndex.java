@@ -0,0 +1,201 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.modules.DependencySpec;
+import org.jboss.modules.ModuleDependencySpec;
+
+/**
+ * An index of which modules can reach which others over module dependencies, built once over a
+ * {@link ModuleGraph}.  The transitive closure is kept as one bit set per strongly connected component over the
+ * condensed (acyclic) graph, so a reachability query is a single bit test.  Paths are found breadth first, only
+ * following dependencies which can still lead to the target.
+ * <p>
+ * Every module can reach itself.  The index is a snapshot: it does not change when the modules are indexed
+ * again.
+ */
+public final class ReachabilityIndex {
+    private static final int[] NO_PATH = new int[0];
+
+    private final ModuleGraph graph;
+    private final BitSet[] closures;
+
+    ReachabilityIndex(final ModuleGraph graph) {
+        this.graph = graph;
+        // dependencies of a component are numbered lower, so they are always closed before it
+        final int componentCount = graph.getComponentCount();
+        closures = new BitSet[componentCount];
+        for (int c = 0; c < componentCount; c ++) {
+            final BitSet closure = new BitSet(c + 1);
+            closure.set(c);
+            for (int module : graph.getComponentModules(c)) {
+                for (int edge = graph.getFirstEdge(module); edge < graph.getFirstEdge(module + 1); edge ++) {
+                    final int target = graph.getComponent(graph.getEdgeTarget(edge));
+                    if (! closure.get(target)) {
+                        closure.or(closures[target]);
+                    }
+                }
+            }
+            closures[c] = closure;
+        }
+    }
+
+    /**
+     * Determine whether one module can reach another over its dependencies, directly or indirectly.
+     *
+     * @param fromName the name of the depending module
+     * @param toName the name of the module to reach
+     * @return {@code true} if {@code fromName} can reach {@code toName}, {@code false} if it cannot or if either
+     *     module is not in the index
+     */
+    public boolean canReach(final String fromName, final String toName) {
+        final int from = graph.getId(fromName);
+        final int to = graph.getId(toName);
+        return from != -1 && to != -1 && canReach(from, to);
+    }
+
+    boolean canReach(final int from, final int to) {
+        return closures[graph.getComponent(from)].get(graph.getComponent(to));
+    }
+
+    /**
+     * Get every module which a module can reach over its dependencies, including itself.
+     *
+     * @param moduleName the module name
+     * @return the names of the reachable modules, or an empty list if the module is not in the index
+     */
+    public List<String> getReachableModules(final String moduleName) {
+        final int id = graph.getId(moduleName);
+        if (id == -1) {
+            return Collections.emptyList();
+        }
+        final List<String> names = new ArrayList<>();
+        final BitSet closure = closures[graph.getComponent(id)];
+        for (int c = closure.nextSetBit(0); c >= 0; c = closure.nextSetBit(c + 1)) {
+            for (int module : graph.getComponentModules(c)) {
+                names.add(graph.getModuleIndex(module).getName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Get a shortest dependency path from one module to another.
+     *
+     * @param fromName the name of the depending module
+     * @param toName the name of the module to reach
+     * @return the names of the modules along the path, starting with {@code fromName} and ending with {@code toName},
+     *     or an empty list if there is no path
+     */
+    public List<String> getShortestPath(final String fromName, final String toName) {
+        final int[] path = findShortestPath(fromName, toName);
+        final List<String> names = new ArrayList<>(path.length);
+        for (int i = 0; i < path.length; i += 2) {
+            names.add(graph.getModuleIndex(path[i]).getName());
+        }
+        return names;
+    }
+
+    /**
+     * Explain why a module is loaded along with another: the shortest chain of dependencies leading from the one
+     * to the other, one line per dependency.
+     *
+     * @param fromName the name of the module which is loaded first
+     * @param toName the name of the module which is loaded because of it
+     * @return the lines of the explanation, or an empty list if {@code toName} is not loaded because of
+     *     {@code fromName}; a module is explained by itself in a single line
+     */
+    public List<String> why(final String fromName, final String toName) {
+        final int[] path = findShortestPath(fromName, toName);
+        if (path.length == 1) {
+            // the path has no dependencies, but the module is still loaded
+            return Collections.singletonList(fromName + " is the module itself");
+        }
+        final List<String> lines = new ArrayList<>();
+        for (int i = 2; i < path.length; i += 2) {
+            final ModuleIndex dependent = graph.getModuleIndex(path[i - 2]);
+            final ModuleIndex dependency = graph.getModuleIndex(path[i]);
+            final DependencySpec spec = graph.getEdgeSpec(path[i - 1]);
+            final StringBuilder b = new StringBuilder();
+            b.append(dependent.getName()).append(" depends on ").append(dependency.getName());
+            final boolean optional = spec instanceof ModuleDependencySpec && ((ModuleDependencySpec) spec).isOptional();
+            final boolean exported = dependent.exports(dependency);
+            if (optional || exported) {
+                b.append(" (");
+                if (optional) b.append("optional");
+                if (optional && exported) b.append(", ");
+                if (exported) b.append("exported");
+                b.append(')');
+            }
+            lines.add(b.toString());
+        }
+        return lines;
+    }
+
+    /**
+     * Find a shortest path breadth first, only visiting modules which can still reach the target.
+     *
+     * @return the module IDs along the path interleaved with the IDs of the edges between them, or an empty array
+     */
+    private int[] findShortestPath(final String fromName, final String toName) {
+        final int from = graph.getId(fromName);
+        final int to = graph.getId(toName);
+        if (from == -1 || to == -1 || ! canReach(from, to)) {
+            return NO_PATH;
+        }
+        final int toComponent = graph.getComponent(to);
+        // the edge by which each module was first reached, or -1 if it was not reached (yet)
+        final int[] reachedBy = new int[graph.getModuleCount()];
+        Arrays.fill(reachedBy, -1);
+        final int[] queue = new int[graph.getModuleCount()];
+        int head = 0, tail = 0;
+        queue[tail ++] = from;
+        while (head < tail) {
+            final int module = queue[head ++];
+            if (module == to) break;
+            for (int edge = graph.getFirstEdge(module); edge < graph.getFirstEdge(module + 1); edge ++) {
+                final int target = graph.getEdgeTarget(edge);
+                if (target != from && reachedBy[target] == -1 && closures[graph.getComponent(target)].get(toComponent)) {
+                    reachedBy[target] = edge;
+                    queue[tail ++] = target;
+                }
+            }
+        }
+        // walk back from the target; the source of each edge is the module before it on the path
+        int length = 1;
+        for (int module = to; module != from; module = graph.getEdgeSource(reachedBy[module])) {
+            length += 2;
+        }
+        final int[] path = new int[length];
+        int module = to;
+        for (int i = length - 1; i > 0; i -= 2) {
+            path[i] = module;
+            path[i - 1] = reachedBy[module];
+            module = graph.getEdgeSource(reachedBy[module]);
+        }
+        path[0] = from;
+        return path;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes findings as they are made, in one of several formats.  Records go through the given writer, which should
+ * be buffered; the writer is flushed after each module's findings so that a consumer sees them promptly.
+ * <p>
+ * A writer for changes reports each finding as added or removed since the previous analysis instead; this is what
+ * the watch mode writes.
+ */
+final class ReportWriter implements Closeable {
+    static final String UNUSED_DEPENDENCY = "unused-dependency";
+    static final String UNUSED_MODULE = "unused-module";
+    static final String UNRESOLVED_DEPENDENCY = "unresolved-dependency";
+    static final String ADDED = "added";
+    static final String REMOVED = "removed";
+
+    private final Writer writer;
+    private final Format format;
+
+    ReportWriter(final Writer writer, final Format format) throws IOException {
+        this(writer, format, false);
+    }
+
+    ReportWriter(final Writer writer, final Format format, final boolean changes) throws IOException {
+        this.writer = writer;
+        this.format = format;
+        format.writeHeader(writer, changes);
+    }
+
+    void unusedDependency(final String moduleName, final String dependencyName) throws IOException {
+        format.writeRecord(writer, null, UNUSED_DEPENDENCY, moduleName, dependencyName);
+    }
+
+    void unusedModule(final String moduleName) throws IOException {
+        format.writeRecord(writer, null, UNUSED_MODULE, moduleName, null);
+    }
+
+    void unresolvedDependency(final String moduleName, final String dependencyName) throws IOException {
+        format.writeRecord(writer, null, UNRESOLVED_DEPENDENCY, moduleName, dependencyName);
+    }
+
+    /**
+     * Write a finding which was added or removed since the previous analysis.
+     *
+     * @param added {@code true} if the finding is new, {@code false} if it went away
+     * @param type the finding type, one of the type constants of this class
+     * @param moduleName the module name
+     * @param dependencyName the dependency name, or {@code null} for an unused module
+     * @throws IOException if writing failed
+     */
+    void change(final boolean added, final String type, final String moduleName, final String dependencyName) throws IOException {
+        format.writeRecord(writer, added ? ADDED : REMOVED, type, moduleName, dependencyName);
+    }
+
+    void unusedModuleCount(final int count) throws IOException {
+        format.writeUnusedModuleCount(writer, count);
+    }
+
+    void flush() throws IOException {
+        writer.flush();
+    }
+
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    enum Format {
+        /**
+         * The human readable messages.  Unresolved dependencies are left to the {@code --warn} output.
+         */
+        TEXT {
+            void writeRecord(final Writer writer, final String change, final String type, final String moduleName, final String dependencyName) throws IOException {
+                final String prefix = change == null ? "" : change.equals(ADDED) ? "+ " : "- ";
+                switch (type) {
+                    case UNUSED_DEPENDENCY: {
+                        writer.write(prefix + "Unused dependency from \"" + moduleName + "\" to \"" + dependencyName + "\"");
+                        writer.write(LINE_SEPARATOR);
+                        break;
+                    }
+                    case UNUSED_MODULE: {
+                        writer.write(prefix + "Unused module \"" + moduleName + "\"");
+                        writer.write(LINE_SEPARATOR);
+                        break;
+                    }
+                }
+            }
+
+            void writeUnusedModuleCount(final Writer writer, final int count) throws IOException {
+                writer.write("Found " + count + " unused modules");
+                writer.write(LINE_SEPARATOR);
+            }
+        },
+        /**
+         * One JSON object per line, with {@code type}, {@code module} and (where there is one) {@code dependency}.
+         * Changes start with a {@code change} of {@code added} or {@code removed}.
+         */
+        JSONL {
+            void writeRecord(final Writer writer, final String change, final String type, final String moduleName, final String dependencyName) throws IOException {
+                if (change == null) {
+                    writer.write("{\"type\":\"");
+                } else {
+                    writer.write("{\"change\":\"");
+                    writer.write(change);
+                    writer.write("\",\"type\":\"");
+                }
+                writer.write(type);
+                writer.write("\",\"module\":");
+                writeJsonString(writer, moduleName);
+                if (dependencyName != null) {
+                    writer.write(",\"dependency\":");
+                    writeJsonString(writer, dependencyName);
+                }
+                writer.write("}\n");
+            }
+        },
+        /**
+         * Comma separated values with a {@code type,module,dependency} header row, or a
+         * {@code change,type,module,dependency} header row for changes.
+         */
+        CSV {
+            void writeHeader(final Writer writer, final boolean changes) throws IOException {
+                writer.write(changes ? "change,type,module,dependency\r\n" : "type,module,dependency\r\n");
+            }
+
+            void writeRecord(final Writer writer, final String change, final String type, final String moduleName, final String dependencyName) throws IOException {
+                if (change != null) {
+                    writer.write(change);
+                    writer.write(',');
+                }
+                writer.write(type);
+                writer.write(',');
+                writeCsvField(writer, moduleName);
+                writer.write(',');
+                if (dependencyName != null) {
+                    writeCsvField(writer, dependencyName);
+                }
+                writer.write("\r\n");
+            }
+        },
+        ;
+
+        private static final String LINE_SEPARATOR = System.lineSeparator();
+
+        void writeHeader(Writer writer, boolean changes) throws IOException {
+        }
+
+        abstract void writeRecord(Writer writer, String change, String type, String moduleName, String dependencyName) throws IOException;
+
+        void writeUnusedModuleCount(Writer writer, int count) throws IOException {
+        }
+
+        static void writeJsonString(final Writer writer, final String str) throws IOException {
+            writer.write('"');
+            for (int i = 0; i < str.length(); i++) {
+                final char c = str.charAt(i);
+                if (c == '"' || c == '\\') {
+                    writer.write('\\');
+                    writer.write(c);
+                } else if (c < 0x20) {
+                    writer.write(String.format("\\u%04x", Integer.valueOf(c)));
+                } else {
+                    writer.write(c);
+                }
+            }
+            writer.write('"');
+        }
+
+        private static void writeCsvField(final Writer writer, final String str) throws IOException {
+            if (str.indexOf(',') == -1 && str.indexOf('"') == -1 && str.indexOf('\n') == -1 && str.indexOf('\r') == -1) {
+                writer.write(str);
+            } else {
+                writer.write('"');
+                writer.write(str.replace("\"", "\"\""));
+                writer.write('"');
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The index of a single resource root of a module, kept apart from the module index so that roots can be
+ * indexed independently and merged in declaration order afterwards.
+ */
+final class ResourceRootIndex {
+    private final List<ClassIndex> classes = new ArrayList<>();
+    // pairs of service interface name, service implementation name
+    private final List<String> serviceReferences = new ArrayList<>();
+    private int serviceFileCount;
+    private boolean cached;
+
+    ResourceRootIndex() {
+    }
+
+    void addClassIndex(final ClassIndex classIndex) {
+        classes.add(classIndex);
+    }
+
+    List<ClassIndex> getClasses() {
+        return classes;
+    }
+
+    void addServiceFile() {
+        serviceFileCount++;
+    }
+
+    int getServiceFileCount() {
+        return serviceFileCount;
+    }
+
+    void addServiceReference(final String svcIntr, final String svcImpl) {
+        serviceReferences.add(svcIntr);
+        serviceReferences.add(svcImpl);
+    }
+
+    int getServiceReferenceCount() {
+        return serviceReferences.size() >> 1;
+    }
+
+    List<String> getServiceReferences() {
+        return serviceReferences;
+    }
+
+    boolean isCached() {
+        return cached;
+    }
+
+    void setCached(final boolean cached) {
+        this.cached = cached;
+    }
+
+    void mergeInto(final ModuleIndex moduleIndex) {
+        for (ClassIndex classIndex : classes) {
+            moduleIndex.addClassIndex(classIndex);
+        }
+        final List<String> serviceReferences = this.serviceReferences;
+        for (int i = 0; i < serviceReferences.size(); i += 2) {
+            moduleIndex.addServiceReference(serviceReferences.get(i), serviceReferences.get(i + 1));
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.jboss.modules.IterableResourceLoader;
+import org.jboss.modules.Resource;
+import org.jboss.modules.ResourceLoader;
+
+/**
+ * A task which indexes every class and service file of one iterable resource root.  Only the resulting
+ * {@link ResourceRootIndex} is written to, so any number of these may run at once.
+ */
+final class ResourceRootIndexTask extends RecursiveTask<ResourceRootIndex> {
+    private static final long serialVersionUID = 1L;
+
+    private final ModuleIndex moduleIndex;
+    private final IterableResourceLoader loader;
+    private final IndexCache cache;
+    private final ScanMode scanMode;
+    private IOException failure;
+    private byte[] buffer = new byte[8192];
+    private Metrics.Measurement measurement;
+
+    ResourceRootIndexTask(final ModuleIndex moduleIndex, final IterableResourceLoader loader, final IndexCache cache, final ScanMode scanMode) {
+        this.moduleIndex = moduleIndex;
+        this.loader = loader;
+        this.cache = cache;
+        this.scanMode = scanMode;
+    }
+
+    protected ResourceRootIndex compute() {
+        final Metrics.Measurement measurement = this.measurement = new Metrics.Measurement(moduleIndex.getName());
+        measurement.start();
+        try {
+            final IndexCache.Slot slot = cache == null ? null : cache.getSlot(moduleIndex.getName(), loader, scanMode);
+            if (slot != null) {
+                final ResourceRootIndex cached = slot.load(moduleIndex);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            final ResourceRootIndex resourceRootIndex = new ResourceRootIndex();
+            indexResources(resourceRootIndex);
+            if (slot != null) {
+                slot.store(moduleIndex.getRootIndex(), resourceRootIndex);
+            }
+            return resourceRootIndex;
+        } catch (IOException e) {
+            failure = e;
+            return new ResourceRootIndex();
+        } finally {
+            measurement.stop();
+        }
+    }
+
+    IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Get the measurement of this task, which is only complete once the task is done.
+     *
+     * @return the measurement
+     */
+    Metrics.Measurement getMeasurement() {
+        return measurement;
+    }
+
+    /**
+     * Get the local file or directory backing a resource root, if any.  JAR roots are reported by their loader
+     * as {@code jar:file:...!/}; a JAR root with a nested path inside the JAR has no local path of its own.
+     *
+     * @param loader the resource loader of the root
+     * @return the path, or {@code null} if the root is not a local file or directory
+     */
+    static Path getLocalPath(final ResourceLoader loader) {
+        URI location = loader.getLocation();
+        if (location == null) {
+            return null;
+        }
+        if ("jar".equals(location.getScheme())) {
+            final String spec = location.getRawSchemeSpecificPart();
+            final int idx = spec.indexOf('!');
+            if (idx != -1 && idx + 1 < spec.length() && ! spec.substring(idx + 1).equals("/")) {
+                return null;
+            }
+            location = URI.create(idx == -1 ? spec : spec.substring(0, idx));
+        }
+        return "file".equals(location.getScheme()) ? Paths.get(location) : null;
+    }
+
+    private void indexResources(final ResourceRootIndex resourceRootIndex) throws IOException {
+        final Path localPath = getLocalPath(loader);
+        if (localPath != null && Files.isRegularFile(localPath)) {
+            indexJar(localPath, resourceRootIndex);
+            return;
+        }
+        final Iterator<Resource> resourceIterator = loader.iterateResources("", true);
+        while (resourceIterator.hasNext()) {
+            final Resource resource = resourceIterator.next();
+            final String resourceName = resource.getName();
+            if (resourceName.endsWith(".class")) {
+                final int length;
+                try (InputStream stream = resource.openStream()) {
+                    length = readFully(stream, -1);
+                }
+                indexClass(resourceRootIndex, length);
+            } else if (resourceName.startsWith("META-INF/services/")) {
+                try (InputStream is = resource.openStream()) {
+                    indexServiceFile(resourceRootIndex, resourceName, is);
+                } catch (IOException e) {
+                    e.printStackTrace(System.err);
+                }
+            }
+        }
+    }
+
+    /**
+     * Index a JAR root directly from its central directory, bypassing the resource loader.  Each class is inflated
+     * into the one reusable buffer of this task.
+     */
+    private void indexJar(final Path jarPath, final ResourceRootIndex resourceRootIndex) throws IOException {
+        try (ZipFile zipFile = new ZipFile(jarPath.toFile())) {
+            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                final String entryName = entry.getName();
+                if (entryName.endsWith(".class")) {
+                    final int length;
+                    try (InputStream stream = zipFile.getInputStream(entry)) {
+                        length = readFully(stream, entry.getSize());
+                    }
+                    indexClass(resourceRootIndex, length);
+                } else if (entryName.startsWith("META-INF/services/")) {
+                    try (InputStream is = zipFile.getInputStream(entry)) {
+                        indexServiceFile(resourceRootIndex, entryName, is);
+                    } catch (IOException e) {
+                        e.printStackTrace(System.err);
+                    }
+                }
+            }
+        }
+    }
+
+    private void indexClass(final ResourceRootIndex resourceRootIndex, final int length) {
+        final ClassIndex classIndex = new ClassIndex(moduleIndex);
+        scanMode.scan(buffer, 0, length, classIndex);
+        resourceRootIndex.addClassIndex(classIndex);
+        measurement.addClass(length);
+    }
+
+    private void indexServiceFile(final ResourceRootIndex resourceRootIndex, final String resourceName, final InputStream is) throws IOException {
+        final RootIndex rootIndex = moduleIndex.getRootIndex();
+        final String svcIntr = rootIndex.intern(resourceName.substring("META-INF/services/".length()).replace('.', '/'));
+        resourceRootIndex.addServiceFile();
+        try (InputStreamReader isr = new InputStreamReader(is, StandardCharsets.UTF_8)) {
+            try (BufferedReader br = new BufferedReader(isr)) {
+                String str;
+                while ((str = br.readLine()) != null) {
+                    final int idx = str.indexOf('#');
+                    if (idx >= 0) {
+                        str = str.substring(0, idx);
+                    }
+                    str = str.trim();
+                    if (! str.isEmpty()) {
+                        resourceRootIndex.addServiceReference(svcIntr, rootIndex.intern(str.replace('.', '/')));
+                    }
+                }
+            }
+        }
+    }
+
+    private int readFully(final InputStream stream, final long sizeHint) throws IOException {
+        byte[] buffer = this.buffer;
+        if (sizeHint >= buffer.length && sizeHint < Integer.MAX_VALUE - 8) {
+            // one spare byte, so that reading to the end does not grow the buffer again
+            buffer = this.buffer = new byte[(int) sizeHint + 1];
+        }
+        int length = 0;
+        int res;
+        while ((res = stream.read(buffer, length, buffer.length - length)) != -1) {
+            length += res;
+            if (length == buffer.length) {
+                buffer = this.buffer = Arrays.copyOf(buffer, length << 1);
+            }
+        }
+        return length;
+    }
+}
@@ -19,17 +19,25 @@
 package org.jboss.modules.deptool;
 
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 
 /**
+ * The index of all modules.  The intern table and string set may be used from any thread; the module and
+ * alias maps are only ever updated by the thread which drives the indexing, and the path filter cache is only
+ * used by the analysis stages, which run on that thread.
  */
 final class RootIndex {
-    private final Map<String, String> internTable = new HashMap<>();
+    private final InternTable internTable = new InternTable();
     private final Map<String, ModuleIndex> modules = new HashMap<>();
     private final Map<String, String> aliases = new HashMap<>();
-    private final Set<String> strings = new HashSet<>();
+    // string constants are kept apart from the names, which are looked up far more often, and only those which
+    // could name a module are kept at all
+    private final InternTable stringCandidates = new InternTable();
+    private InternTable strings = new InternTable();
+    // class symbols are tagged with the ID of their package, or -1 for the default package
+    private final SymbolTable classSymbols = new SymbolTable();
+    private final SymbolTable packageSymbols = new SymbolTable();
+    private final PathFilterCache pathFilterCache = new PathFilterCache(this);
 
     RootIndex() {
     }
@@ -43,16 +51,78 @@ final class RootIndex {
     }
 
     String intern(final String name) {
-        final String res = internTable.get(name);
-        if (res != null) return res;
-        internTable.put(name, name);
-        return name;
+        return internTable.intern(name);
+    }
+
+    String intern(final CharSequence chars, final int start, final int end) {
+        return internTable.intern(chars, start, end);
+    }
+
+    int getClassId(final String className) {
+        return getClassId(className, 0, className.length());
+    }
+
+    /**
+     * Get the ID of the class whose internal name is the given range of a string.  Nothing is allocated if the
+     * class already has an ID.
+     *
+     * @param source the string holding the class name
+     * @param start the start of the class name
+     * @param end the end of the class name
+     * @return the class ID
+     */
+    int getClassId(final String source, final int start, final int end) {
+        final int id = classSymbols.findId(source, start, end);
+        if (id != -1) return id;
+        final int idx = source.lastIndexOf('/', end - 1);
+        final int packageId = idx < start ? -1 : getPackageId(source, start, idx);
+        return classSymbols.getId(intern(source, start, end), packageId);
+    }
+
+    String getClassName(final int classId) {
+        return classSymbols.getName(classId);
+    }
+
+    int getClassPackageId(final int classId) {
+        return classSymbols.getTag(classId);
+    }
+
+    int getPackageId(final String packageName) {
+        return getPackageId(packageName, 0, packageName.length());
+    }
+
+    private int getPackageId(final String source, final int start, final int end) {
+        final int id = packageSymbols.findId(source, start, end);
+        if (id != -1) return id;
+        return packageSymbols.getId(intern(source, start, end), 0);
+    }
+
+    int findPackageId(final String packageName) {
+        return packageSymbols.findId(packageName);
+    }
+
+    String getPackageName(final int packageId) {
+        return packageSymbols.getName(packageId);
+    }
+
+    PathFilterCache getPathFilterCache() {
+        return pathFilterCache;
     }
 
     void addAlias(final String aliasName, final String name) {
         aliases.put(intern(aliasName), intern(name));
     }
 
+    /**
+     * Remove a module or alias from the index.
+     *
+     * @param name the module or alias name
+     */
+    void removeModule(final String name) {
+        modules.remove(name);
+        aliases.remove(name);
+    }
+
     ModuleIndex getModule(final String moduleName) {
         ModuleIndex moduleIndex = modules.get(moduleName);
         if (moduleIndex == null) {
@@ -64,8 +134,46 @@ final class RootIndex {
         return moduleIndex;
     }
 
-    void addString(final String str) {
-        strings.add(intern(str));
+    /**
+     * Allow a string constant to be recorded by {@link #addString(String)}.  Candidates must be added before
+     * indexing starts.
+     *
+     * @param str the string which may be looked up with {@link #hasString(String)}
+     */
+    void addStringCandidate(final String str) {
+        stringCandidates.intern(str);
+    }
+
+    /**
+     * Record a string constant, if it is a candidate.
+     *
+     * @param str the string constant
+     * @return {@code true} if the string was recorded
+     */
+    boolean addString(final String str) {
+        if (stringCandidates.contains(str)) {
+            strings.intern(str);
+            return true;
+        }
+        return false;
+    }
+
+    boolean isStringCandidate(final String str) {
+        return stringCandidates.contains(str);
+    }
+
+    /**
+     * Rebuild the recorded string constants from the modules of the index, dropping those of modules which were
+     * removed or re-indexed since.
+     */
+    void rebuildStrings() {
+        final InternTable strings = new InternTable();
+        for (ModuleIndex moduleIndex : modules.values()) {
+            for (String str : moduleIndex.getStrings()) {
+                strings.intern(str);
+            }
+        }
+        this.strings = strings;
     }
 
     boolean hasString(final String name) {
@@ -0,0 +1,67 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.nio.ByteBuffer;
+
+import org.objectweb.asm.ClassReader;
+
+/**
+ * The amount of detail read from each class file in stage 1.
+ */
+public enum ScanMode {
+    /**
+     * Visit everything the indexer uses.  Stack map frames are never needed and are always skipped.
+     */
+    FULL(ClassReader.SKIP_FRAMES),
+    /**
+     * Additionally skip debug information.  Types which only appear in the local variable table of a method
+     * (that is, locals which are never the operand of an instruction and are not in any signature) are not
+     * recorded; everything else is the same as for {@link #FULL}.
+     */
+    FAST(ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG),
+    /**
+     * Read the constant pool and member headers directly with {@link ConstantPoolScanner} instead of visiting
+     * the class with ASM.  Records a superset of the references found by {@link #FULL}.
+     */
+    CONSTANT_POOL(0) {
+        void scan(final byte[] bytes, final int offset, final int length, final ClassIndex classIndex) {
+            ConstantPoolScanner.scan(ByteBuffer.wrap(bytes, offset, length), classIndex);
+        }
+    },
+    ;
+
+    private final int readerFlags;
+
+    ScanMode(final int readerFlags) {
+        this.readerFlags = readerFlags;
+    }
+
+    /**
+     * Index one class file.
+     *
+     * @param bytes the buffer holding the class file
+     * @param offset the offset of the class file in the buffer
+     * @param length the length of the class file
+     * @param classIndex the class index to populate
+     */
+    void scan(final byte[] bytes, final int offset, final int length, final ClassIndex classIndex) {
+        new ClassReader(bytes, offset, length).accept(new Main.IndexClassVisitor(null, classIndex), readerFlags);
+    }
+}
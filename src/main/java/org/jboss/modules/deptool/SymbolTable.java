@@ -0,0 +1,176 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A table assigning dense {@code int} IDs to names, in order of first appearance.  Lookups may come from any
+ * thread and never lock; assignment of new IDs is serialized.  Each symbol may carry one {@code int} tag fixed at
+ * the time its ID is assigned.
+ * <p>
+ * Names are looked up by a range of a string, so callers can resolve a name embedded in a descriptor without
+ * taking a substring.  The hash table is open-addressed and holds {@code id + 1} in each slot; it is only ever
+ * appended to, and is replaced (not resized in place) when it fills, so a reader holding an old table at worst
+ * misses a name added concurrently.
+ */
+final class SymbolTable {
+    private volatile AtomicIntegerArray slots = new AtomicIntegerArray(512);
+    private volatile String[] names = new String[256];
+    private volatile int[] tags = new int[256];
+    private volatile int size;
+
+    SymbolTable() {
+    }
+
+    /**
+     * Get the ID of a name, assigning the next one if the name is new.
+     *
+     * @param name the name
+     * @param tag the tag to record if the name is new
+     * @return the ID
+     */
+    int getId(final String name, final int tag) {
+        return getId(name, 0, name.length(), tag);
+    }
+
+    /**
+     * Get the ID of the name in the given range of a string, assigning the next one if the name is new.
+     *
+     * @param source the string holding the name
+     * @param start the start of the name
+     * @param end the end of the name
+     * @param tag the tag to record if the name is new
+     * @return the ID
+     */
+    int getId(final String source, final int start, final int end, final int tag) {
+        final int hash = hash(source, start, end);
+        final int id = find(slots, source, start, end, hash);
+        if (id != -1) {
+            return id;
+        }
+        synchronized (this) {
+            AtomicIntegerArray slots = this.slots;
+            final int existing = find(slots, source, start, end, hash);
+            if (existing != -1) {
+                return existing;
+            }
+            final int newId = size;
+            String[] names = this.names;
+            int[] tags = this.tags;
+            if (newId == names.length) {
+                this.names = names = Arrays.copyOf(names, newId << 1);
+                this.tags = tags = Arrays.copyOf(tags, newId << 1);
+            }
+            names[newId] = source.substring(start, end);
+            tags[newId] = tag;
+            if (newId << 1 >= slots.length()) {
+                final AtomicIntegerArray newSlots = new AtomicIntegerArray(slots.length() << 1);
+                for (int i = 0; i < newId; i++) {
+                    insert(newSlots, names[i].hashCode(), i);
+                }
+                this.slots = slots = newSlots;
+            }
+            // publishing the slot makes the array stores above visible to any thread which finds it
+            insert(slots, hash, newId);
+            size = newId + 1;
+            return newId;
+        }
+    }
+
+    /**
+     * Get the ID of a name without assigning one.
+     *
+     * @param name the name
+     * @return the ID, or -1 if the name has none
+     */
+    int findId(final String name) {
+        return findId(name, 0, name.length());
+    }
+
+    /**
+     * Get the ID of the name in the given range of a string without assigning one.  Nothing is allocated.
+     *
+     * @param source the string holding the name
+     * @param start the start of the name
+     * @param end the end of the name
+     * @return the ID, or -1 if the name has none
+     */
+    int findId(final String source, final int start, final int end) {
+        return find(slots, source, start, end, hash(source, start, end));
+    }
+
+    String getName(final int id) {
+        return names[id];
+    }
+
+    int getTag(final int id) {
+        return tags[id];
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int find(final AtomicIntegerArray slots, final String source, final int start, final int end, final int hash) {
+        final int mask = slots.length() - 1;
+        final int length = end - start;
+        int i = spread(hash) & mask;
+        for (;;) {
+            final int slot = slots.get(i);
+            if (slot == 0) {
+                return -1;
+            }
+            final String name = names[slot - 1];
+            if (name.length() == length && name.hashCode() == hash && name.regionMatches(0, source, start, length)) {
+                return slot - 1;
+            }
+            i = i + 1 & mask;
+        }
+    }
+
+    private static void insert(final AtomicIntegerArray slots, final int hash, final int id) {
+        final int mask = slots.length() - 1;
+        int i = spread(hash) & mask;
+        while (slots.get(i) != 0) {
+            i = i + 1 & mask;
+        }
+        slots.set(i, id + 1);
+    }
+
+    /**
+     * Compute the hash of a range of a string, equal to {@link String#hashCode()} of the corresponding substring.
+     */
+    private static int hash(final String source, final int start, final int end) {
+        if (start == 0 && end == source.length()) {
+            return source.hashCode();
+        }
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+        return hash;
+    }
+
+    private static int spread(final int hash) {
+        final int h = hash * 0x9E3779B9;
+        return h ^ h >>> 16;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Produces unified diffs of text files, in the format understood by {@code patch} and {@code git apply}.  Lines
+ * common to the start and the end of both files are skipped first, so the (quadratic) line matching only ever
+ * runs over the region between the first and the last change, which for a fixed {@code module.xml} is a few
+ * dozen lines at most.
+ */
+final class UnifiedDiff {
+    private static final int CONTEXT = 3;
+    // beyond this many cells the changed region is shown as a single replacement instead of being matched up
+    private static final int MAX_MATCH_CELLS = 1 << 22;
+
+    private UnifiedDiff() {
+    }
+
+    /**
+     * Append the diff between two versions of a file.  Nothing is appended if they are the same.
+     *
+     * @param b the string builder to append to
+     * @param path the path of the file relative to the directory the patch applies to, using {@code /} separators
+     * @param oldText the original content
+     * @param newText the new content
+     */
+    static void appendDiff(final StringBuilder b, final String path, final String oldText, final String newText) {
+        final List<String> oldLines = splitLines(oldText);
+        final List<String> newLines = splitLines(newText);
+        final int oldSize = oldLines.size();
+        final int newSize = newLines.size();
+        int prefix = 0;
+        while (prefix < oldSize && prefix < newSize && oldLines.get(prefix).equals(newLines.get(prefix))) {
+            prefix ++;
+        }
+        int suffix = 0;
+        while (suffix < oldSize - prefix && suffix < newSize - prefix && oldLines.get(oldSize - 1 - suffix).equals(newLines.get(newSize - 1 - suffix))) {
+            suffix ++;
+        }
+        if (prefix == oldSize && prefix == newSize) {
+            return;
+        }
+        final boolean[] oldKept = new boolean[oldSize];
+        final boolean[] newKept = new boolean[newSize];
+        for (int i = 0; i < prefix; i ++) {
+            oldKept[i] = newKept[i] = true;
+        }
+        for (int i = 1; i <= suffix; i ++) {
+            oldKept[oldSize - i] = newKept[newSize - i] = true;
+        }
+        match(oldLines, prefix, oldSize - suffix, oldKept, newLines, prefix, newSize - suffix, newKept);
+
+        b.append("--- a/").append(path).append('\n');
+        b.append("+++ b/").append(path).append('\n');
+        // walk both files in step, emitting a hunk for every run of changes and the context around it
+        int i = 0, j = 0;
+        while (i < oldSize || j < newSize) {
+            if (i < oldSize && j < newSize && oldKept[i] && newKept[j]) {
+                i ++;
+                j ++;
+                continue;
+            }
+            // a change starts at i, j; find the end of the hunk, merging changes closer than twice the context
+            final int hunkOldStart = Math.max(0, i - CONTEXT);
+            final int hunkNewStart = j - (i - hunkOldStart);
+            int oldEnd = i, newEnd = j;
+            for (;;) {
+                while (oldEnd < oldSize && ! oldKept[oldEnd]) oldEnd ++;
+                while (newEnd < newSize && ! newKept[newEnd]) newEnd ++;
+                int common = 0;
+                while (oldEnd + common < oldSize && newEnd + common < newSize && oldKept[oldEnd + common] && newKept[newEnd + common] && common <= 2 * CONTEXT) {
+                    common ++;
+                }
+                final boolean atEnd = oldEnd + common == oldSize && newEnd + common == newSize;
+                if (common > 2 * CONTEXT || atEnd) {
+                    final int trailing = Math.min(common, CONTEXT);
+                    oldEnd += trailing;
+                    newEnd += trailing;
+                    break;
+                }
+                oldEnd += common;
+                newEnd += common;
+            }
+            appendRange(b.append("@@ -"), hunkOldStart, oldEnd - hunkOldStart);
+            appendRange(b.append(" +"), hunkNewStart, newEnd - hunkNewStart);
+            b.append(" @@\n");
+            int oi = hunkOldStart, ni = hunkNewStart;
+            while (oi < oldEnd || ni < newEnd) {
+                if (oi < oldEnd && ! oldKept[oi]) {
+                    appendLine(b, '-', oldLines.get(oi ++));
+                } else if (ni < newEnd && ! newKept[ni]) {
+                    appendLine(b, '+', newLines.get(ni ++));
+                } else {
+                    appendLine(b, ' ', oldLines.get(oi ++));
+                    ni ++;
+                }
+            }
+            i = oldEnd;
+            j = newEnd;
+        }
+    }
+
+    /**
+     * Mark the lines of the longest common subsequence of two line ranges as kept.
+     */
+    private static void match(final List<String> oldLines, final int oldStart, final int oldEnd, final boolean[] oldKept, final List<String> newLines, final int newStart, final int newEnd, final boolean[] newKept) {
+        final int n = oldEnd - oldStart;
+        final int m = newEnd - newStart;
+        if (n == 0 || m == 0 || (long) (n + 1) * (m + 1) > MAX_MATCH_CELLS) {
+            return;
+        }
+        // lengths[x][y] is the length of the longest common subsequence of the old lines from x and the new lines from y
+        final int[][] lengths = new int[n + 1][m + 1];
+        for (int x = n - 1; x >= 0; x --) {
+            for (int y = m - 1; y >= 0; y --) {
+                lengths[x][y] = oldLines.get(oldStart + x).equals(newLines.get(newStart + y)) ? lengths[x + 1][y + 1] + 1 : Math.max(lengths[x + 1][y], lengths[x][y + 1]);
+            }
+        }
+        int x = 0, y = 0;
+        while (x < n && y < m) {
+            if (oldLines.get(oldStart + x).equals(newLines.get(newStart + y))) {
+                oldKept[oldStart + x ++] = true;
+                newKept[newStart + y ++] = true;
+            } else if (lengths[x + 1][y] >= lengths[x][y + 1]) {
+                x ++;
+            } else {
+                y ++;
+            }
+        }
+    }
+
+    private static void appendRange(final StringBuilder b, final int start, final int count) {
+        // an empty range is given by the line before it
+        b.append(count == 0 ? start : start + 1);
+        if (count != 1) b.append(',').append(count);
+    }
+
+    private static void appendLine(final StringBuilder b, final char prefix, final String line) {
+        b.append(prefix).append(line);
+        if (! line.endsWith("\n")) {
+            b.append("\n\\ No newline at end of file\n");
+        }
+    }
+
+    /**
+     * Split text into lines, each keeping its line terminator.
+     */
+    private static List<String> splitLines(final String text) {
+        final List<String> lines = new ArrayList<>();
+        int start = 0;
+        int idx;
+        while ((idx = text.indexOf('\n', start)) != -1) {
+            lines.add(text.substring(start, idx + 1));
+            start = idx + 1;
+        }
+        if (start < text.length()) {
+            lines.add(text.substring(start));
+        }
+        return lines;
+    }
+}
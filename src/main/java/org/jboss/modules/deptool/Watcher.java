@@ -0,0 +1,273 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import nu.xom.Builder;
+import nu.xom.Element;
+import nu.xom.ParsingException;
+import org.jboss.modules.ModuleLoadException;
+
+/**
+ * Keeps an analyzer resident and analyzes again whenever something changes under the module repository roots.  A
+ * change to a {@code module.xml}, or to any file or directory below the directory holding it, re-indexes that module
+ * only.  The findings are written as changes: everything found by the first analysis is added, and after that only
+ * what was added or removed since the previous analysis is written.
+ * <p>
+ * Resource roots which are outside of their module directory are not watched.
+ */
+final class Watcher {
+    // changes are collected until the file system has been quiet for this long, so that a build which writes many
+    // files is analyzed once
+    private static final long QUIET_MILLIS = 250;
+
+    private final Analyzer analyzer;
+    private final List<Path> roots;
+    private final ReportWriter report;
+    private final boolean warn;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    // the directory holding each module.xml, to the name of its module
+    private final Map<Path, String> moduleDirectories = new HashMap<>();
+    private WatchService watchService;
+
+    Watcher(final Analyzer analyzer, final List<Path> roots, final ReportWriter report, final boolean warn) {
+        this.analyzer = analyzer;
+        this.roots = roots;
+        this.report = report;
+        this.warn = warn;
+    }
+
+    /**
+     * Index and analyze, and then keep analyzing changes until the thread is interrupted.
+     *
+     * @throws IOException if indexing, watching or writing the report failed
+     * @throws ModuleLoadException if a module could not be loaded
+     * @throws InterruptedException if the thread was interrupted while waiting for changes
+     */
+    void run() throws IOException, ModuleLoadException, InterruptedException {
+        try (WatchService watchService = roots.get(0).getFileSystem().newWatchService()) {
+            this.watchService = watchService;
+            for (Path root : roots) {
+                register(root, null);
+            }
+            analyzer.index();
+            AnalysisResult previous = analyzer.analyze();
+            writeChanges(new AnalysisResult(Collections.emptyMap(), Collections.emptyList(), Collections.emptyMap()), previous);
+            // modules which still have to be indexed again, kept across failed attempts
+            final Set<String> changed = new LinkedHashSet<>();
+            boolean indexAll = false;
+            for (;;) {
+                WatchKey key = watchService.take();
+                do {
+                    // events were lost on overflow, so anything may have changed
+                    indexAll |= processEvents(key, changed);
+                } while ((key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null);
+                if (! indexAll && changed.isEmpty()) {
+                    continue;
+                }
+                final AnalysisResult current;
+                try {
+                    if (indexAll) {
+                        analyzer.index();
+                    } else {
+                        analyzer.reindex(changed);
+                    }
+                    current = analyzer.analyze();
+                } catch (IOException | ModuleLoadException e) {
+                    // most likely a file which is still being written; try again on the next change
+                    System.err.print("Failed to index changed modules: ");
+                    e.printStackTrace(System.err);
+                    continue;
+                }
+                indexAll = false;
+                changed.clear();
+                writeChanges(previous, current);
+                previous = current;
+            }
+        }
+    }
+
+    private boolean processEvents(final WatchKey key, final Set<String> changed) throws IOException {
+        final Path directory = directories.get(key);
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            if (directory == null) {
+                continue;
+            }
+            final Path path = directory.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                // may hold new modules, and its contents may have been created before it was registered
+                try {
+                    register(path, changed);
+                } catch (NoSuchFileException ignored) {
+                    // already gone again; its deletion is the next event
+                }
+            } else if (event.kind() == ENTRY_DELETE) {
+                // a directory which was moved away takes its modules with it, without any event for their contents
+                final Iterator<Map.Entry<Path, String>> iterator = moduleDirectories.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    final Map.Entry<Path, String> entry = iterator.next();
+                    if (entry.getKey().startsWith(path)) {
+                        changed.add(entry.getValue());
+                        iterator.remove();
+                    }
+                }
+            }
+            addChangedModule(path, changed);
+        }
+        if (! key.reset()) {
+            directories.remove(key);
+        }
+        return overflow;
+    }
+
+    private void addChangedModule(final Path path, final Set<String> changed) {
+        if (path.getFileName().toString().equals("module.xml")) {
+            final Path moduleDirectory = path.getParent();
+            final String moduleName = Files.isRegularFile(path) ? readModuleName(path) : null;
+            final String oldModuleName = moduleName == null ? moduleDirectories.remove(moduleDirectory) : moduleDirectories.put(moduleDirectory, moduleName);
+            if (moduleName != null) {
+                changed.add(moduleName);
+            }
+            // a renamed module is gone under its old name
+            if (oldModuleName != null) {
+                changed.add(oldModuleName);
+            }
+            return;
+        }
+        for (Path directory = path.getParent(); directory != null; directory = directory.getParent()) {
+            final String moduleName = moduleDirectories.get(directory);
+            if (moduleName != null) {
+                changed.add(moduleName);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Watch a directory and every directory below it, and find the modules in it.
+     *
+     * @param start the directory
+     * @param changed the set to add the names of the modules found to, or {@code null} for the initial scan
+     */
+    private void register(final Path start, final Set<String> changed) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+                directories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                if (file.getFileName().toString().equals("module.xml")) {
+                    final String moduleName = readModuleName(file);
+                    if (moduleName != null) {
+                        moduleDirectories.put(file.getParent(), moduleName);
+                        if (changed != null) {
+                            changed.add(moduleName);
+                        }
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private String readModuleName(final Path moduleXml) {
+        final Element rootElement;
+        try (BufferedReader reader = Files.newBufferedReader(moduleXml, StandardCharsets.UTF_8)) {
+            rootElement = new Builder(false).build(reader).getRootElement();
+        } catch (ParsingException | IOException e) {
+            if (warn) {
+                System.err.print("Failed to parse " + moduleXml + ": ");
+                e.printStackTrace(System.err);
+            }
+            return null;
+        }
+        final String name = rootElement.getAttributeValue("name");
+        final String slot = rootElement.getAttributeValue("slot");
+        return name == null || slot == null || slot.equals("main") ? name : name + ":" + slot;
+    }
+
+    private void writeChanges(final AnalysisResult previous, final AnalysisResult current) throws IOException {
+        writeChanges(ReportWriter.UNRESOLVED_DEPENDENCY, previous.getUnresolvedDependencies(), current.getUnresolvedDependencies());
+        writeChanges(ReportWriter.UNUSED_DEPENDENCY, previous.getUnusedDependencies(), current.getUnusedDependencies());
+        final Set<String> previousModules = new HashSet<>(previous.getUnusedModules());
+        final Set<String> currentModules = new HashSet<>(current.getUnusedModules());
+        for (String moduleName : previous.getUnusedModules()) {
+            if (! currentModules.contains(moduleName)) {
+                report.change(false, ReportWriter.UNUSED_MODULE, moduleName, null);
+            }
+        }
+        for (String moduleName : current.getUnusedModules()) {
+            if (! previousModules.contains(moduleName)) {
+                report.change(true, ReportWriter.UNUSED_MODULE, moduleName, null);
+            }
+        }
+        report.flush();
+    }
+
+    private void writeChanges(final String type, final Map<String, List<String>> previous, final Map<String, List<String>> current) throws IOException {
+        for (Map.Entry<String, List<String>> entry : previous.entrySet()) {
+            final List<String> currentNames = current.getOrDefault(entry.getKey(), Collections.emptyList());
+            for (String name : entry.getValue()) {
+                if (! currentNames.contains(name)) {
+                    report.change(false, type, entry.getKey(), name);
+                }
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : current.entrySet()) {
+            final List<String> previousNames = previous.getOrDefault(entry.getKey(), Collections.emptyList());
+            for (String name : entry.getValue()) {
+                if (! previousNames.contains(name)) {
+                    report.change(true, type, entry.getKey(), name);
+                }
+            }
+        }
+    }
+}
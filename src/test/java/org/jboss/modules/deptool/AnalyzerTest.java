@@ -0,0 +1,166 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.jboss.modules.ModuleLoadException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check that analyzing after {@link Analyzer#reindex(java.util.Collection)} finds the same as indexing the changed
+ * repository from scratch, when modules behind aliases are changed, removed and re-pointed.
+ */
+public class AnalyzerTest {
+    private static final Pattern DEPENDENCY = Pattern.compile("<module name=\"([^\"]+)\"");
+
+    private Path workDir;
+    private Path root;
+
+    @Before
+    public void generate() throws IOException {
+        workDir = Files.createTempDirectory("deptool-test");
+        root = workDir.resolve("modules");
+        new FixtureGenerator(60, 3, 4, 25, 4, 3L).generate(root);
+    }
+
+    @After
+    public void delete() throws IOException {
+        final List<Path> paths = new ArrayList<>();
+        try (Stream<Path> stream = Files.walk(workDir)) {
+            stream.forEach(paths::add);
+        }
+        Collections.reverse(paths);
+        for (Path path : paths) {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testReindexAliases() throws Exception {
+        // one dependency through an alias, one through a chain of two aliases, and one more through an alias
+        final String m1 = FixtureGenerator.moduleName(1, 20);
+        final String x1 = firstDependency(m1);
+        writeAlias("alias.one", x1);
+        replaceDependency(m1, x1, "alias.one");
+        final String m2 = FixtureGenerator.moduleName(2, 40);
+        final String x2 = firstDependency(m2);
+        writeAlias("alias.two", "alias.three");
+        writeAlias("alias.three", x2);
+        replaceDependency(m2, x2, "alias.two");
+        final String m3 = FixtureGenerator.moduleName(2, 41);
+        final String x3 = firstDependency(m3);
+        writeAlias("alias.four", x3);
+        replaceDependency(m3, x3, "alias.four");
+
+        final Analyzer analyzer = new Analyzer();
+        analyzer.setModuleRoots(root);
+        analyzer.index();
+        assertSameResult("index", analyzer.analyze());
+
+        // the module behind an alias is removed, so the dependency through it no longer resolves
+        move(root, workDir.resolve("removed"), x1);
+        analyzer.reindex(Collections.singleton(x1));
+        final AnalysisResult removed = assertSameResult("remove " + x1, analyzer.analyze());
+        assertEquals(Collections.singletonList("alias.one"), removed.getUnresolvedDependencies().get(m1));
+
+        // the end of an alias chain is re-pointed at a module which the dependent does not use
+        final String y = FixtureGenerator.moduleName(0, x2.equals(FixtureGenerator.moduleName(0, 0)) ? 1 : 0);
+        writeAlias("alias.three", y);
+        analyzer.reindex(Collections.singleton("alias.three"));
+        assertSameResult("re-point alias.three", analyzer.analyze());
+
+        // the module behind an alias loses its dependencies
+        final Path x3Descriptor = descriptor(x3);
+        final String x3Xml = new String(Files.readAllBytes(x3Descriptor), StandardCharsets.UTF_8);
+        Files.write(x3Descriptor, DEPENDENCY.matcher(x3Xml).replaceAll("<!-- $0").replace("/>\n", "/> -->\n").getBytes(StandardCharsets.UTF_8));
+        analyzer.reindex(Collections.singleton(x3));
+        assertSameResult("change " + x3, analyzer.analyze());
+
+        // the removed module comes back
+        move(workDir.resolve("removed"), root, x1);
+        analyzer.reindex(Collections.singleton(x1));
+        assertTrue(assertSameResult("restore " + x1, analyzer.analyze()).getUnresolvedDependencies().get(m1) == null);
+
+        // an alias and the module behind another one are removed together
+        move(root, workDir.resolve("removed"), "alias.two");
+        move(root, workDir.resolve("removed"), x3);
+        analyzer.reindex(Arrays.asList("alias.two", x3));
+        assertSameResult("remove alias.two and " + x3, analyzer.analyze());
+    }
+
+    /**
+     * Check a result against a fresh index of the same repository.  The unused modules are compared as a set,
+     * since their order is the order of the index.
+     */
+    private AnalysisResult assertSameResult(final String step, final AnalysisResult actual) throws IOException, ModuleLoadException {
+        final Analyzer analyzer = new Analyzer();
+        analyzer.setModuleRoots(root);
+        analyzer.index();
+        final AnalysisResult expected = analyzer.analyze();
+        assertEquals(step, expected.getUnusedDependencies(), actual.getUnusedDependencies());
+        assertEquals(step, new TreeSet<>(expected.getUnusedModules()), new TreeSet<>(actual.getUnusedModules()));
+        assertEquals(step, expected.getUnresolvedDependencies(), actual.getUnresolvedDependencies());
+        return actual;
+    }
+
+    private Path descriptor(final String moduleName) {
+        return root.resolve(moduleName.replace('.', '/')).resolve("main").resolve("module.xml");
+    }
+
+    private String firstDependency(final String moduleName) throws IOException {
+        final Matcher matcher = DEPENDENCY.matcher(new String(Files.readAllBytes(descriptor(moduleName)), StandardCharsets.UTF_8));
+        assertTrue(moduleName, matcher.find());
+        return matcher.group(1);
+    }
+
+    private void replaceDependency(final String moduleName, final String from, final String to) throws IOException {
+        final Path descriptor = descriptor(moduleName);
+        final String xml = new String(Files.readAllBytes(descriptor), StandardCharsets.UTF_8);
+        Files.write(descriptor, xml.replace("<module name=\"" + from + "\"", "<module name=\"" + to + "\"").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeAlias(final String aliasName, final String targetName) throws IOException {
+        final Path descriptor = descriptor(aliasName);
+        Files.createDirectories(descriptor.getParent());
+        Files.write(descriptor, ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<module-alias xmlns=\"urn:jboss:module:1.5\" name=\"" + aliasName + "\" target-name=\"" + targetName + "\"/>\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void move(final Path from, final Path to, final String moduleName) throws IOException {
+        final Path target = to.resolve(moduleName.replace('.', '/')).resolve("main");
+        Files.createDirectories(target.getParent());
+        Files.move(from.resolve(moduleName.replace('.', '/')).resolve("main"), target);
+    }
+}
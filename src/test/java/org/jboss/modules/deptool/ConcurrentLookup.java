@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Look up the same names from several threads at once.  Every thread visits every name once, starting at a different
+ * name, and the threads are released together so that they race on the first lookup of each name.
+ */
+final class ConcurrentLookup {
+    static final int THREADS = 8;
+
+    private ConcurrentLookup() {
+    }
+
+    interface Lookup {
+        /**
+         * Look up a name.
+         *
+         * @param i the index of the name
+         * @param random the random source of the calling thread
+         * @return the result of the lookup
+         */
+        Object lookup(int i, Random random);
+    }
+
+    static String[] names(int count) {
+        final String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = "org/example/p" + (i % 97) + "/C" + i;
+        }
+        return names;
+    }
+
+    /**
+     * Run one round of lookups.
+     *
+     * @param count the number of names
+     * @param seed the seed of this round
+     * @param lookup the lookup to run
+     * @return the results of each thread, indexed by name
+     * @throws Exception if a lookup failed
+     */
+    static List<Object[]> run(final int count, final long seed, final Lookup lookup) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<Object[]>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final int offset = t * count / THREADS;
+                final Random random = new Random(seed * THREADS + t);
+                futures.add(executor.submit(new Callable<Object[]>() {
+                    public Object[] call() throws InterruptedException {
+                        final Object[] results = new Object[count];
+                        start.await();
+                        for (int k = 0; k < count; k++) {
+                            final int i = (k + offset) % count;
+                            results[i] = lookup.lookup(i, random);
+                        }
+                        return results;
+                    }
+                }));
+            }
+            start.countDown();
+            final List<Object[]> results = new ArrayList<>();
+            for (Future<Object[]> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+
+/**
+ * Cross-check {@link ScanMode#CONSTANT_POOL} against the ASM visitor of {@link ScanMode#FULL}.
+ */
+public class ConstantPoolScannerTest {
+
+    @Test
+    public void testOwnClasses() throws Exception {
+        checkSuperset(readClasses(Main.class));
+    }
+
+    @Test
+    public void testAsmClasses() throws Exception {
+        checkSuperset(readClasses(ClassReader.class));
+    }
+
+    /**
+     * Check that for each class, the scanner finds the same header as the visitor, and every class reference and
+     * string that the visitor finds.
+     */
+    private static void checkSuperset(final Map<String, byte[]> classes) {
+        assertTrue("No classes found", classes.size() > 10);
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            final String fileName = entry.getKey();
+            final byte[] bytes = entry.getValue();
+            final RootIndex rootIndex = new RootIndex();
+            final ModuleIndex moduleIndex = new ModuleIndex(rootIndex, "test");
+            final ClassIndex full = new ClassIndex(moduleIndex);
+            final ClassIndex constantPool = new ClassIndex(moduleIndex);
+            ScanMode.FULL.scan(bytes, 0, bytes.length, full);
+            ScanMode.CONSTANT_POOL.scan(bytes, 0, bytes.length, constantPool);
+
+            assertEquals(fileName, full.getName(), constantPool.getName());
+            assertEquals(fileName, full.getSuperClassName(), constantPool.getSuperClassName());
+            assertArrayEquals(fileName, full.getInterfaceNames(), constantPool.getInterfaceNames());
+
+            final Set<String> fullMembers = classNames(rootIndex, full.getMemberClassRefCounts());
+            final Set<String> constantPoolMembers = classNames(rootIndex, constantPool.getMemberClassRefCounts());
+            for (String className : fullMembers) {
+                assertTrue(fileName + " member reference " + className, constantPoolMembers.contains(className));
+            }
+            final Set<String> fullRefs = classNames(rootIndex, full.getOtherClassRefCounts());
+            fullRefs.addAll(fullMembers);
+            final Set<String> constantPoolRefs = classNames(rootIndex, constantPool.getOtherClassRefCounts());
+            constantPoolRefs.addAll(constantPoolMembers);
+            for (String className : fullRefs) {
+                assertTrue(fileName + " class reference " + className, constantPoolRefs.contains(className));
+            }
+            for (String str : full.getStrings()) {
+                assertTrue(fileName + " string " + str, constantPool.getStrings().contains(str));
+            }
+        }
+    }
+
+    /**
+     * Get the referenced class names.  Array types, including array owners of members, are recorded by their
+     * element class, so no name nor package may be an array descriptor.
+     */
+    private static Set<String> classNames(final RootIndex rootIndex, final IntCounts counts) {
+        final Set<String> names = new HashSet<>();
+        for (int classId : counts.keys()) {
+            final String name = rootIndex.getClassName(classId);
+            assertFalse(name, name.startsWith("["));
+            assertFalse(name, rootIndex.getPackageName(rootIndex.getClassPackageId(classId)).startsWith("["));
+            names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * Read every class file of the directory or JAR the given class was loaded from.
+     */
+    private static Map<String, byte[]> readClasses(final Class<?> clazz) throws IOException, URISyntaxException {
+        final Path root = Paths.get(clazz.getProtectionDomain().getCodeSource().getLocation().toURI());
+        final Map<String, byte[]> classes = new LinkedHashMap<>();
+        if (Files.isDirectory(root)) {
+            final List<Path> files;
+            try (Stream<Path> stream = Files.walk(root)) {
+                files = stream.filter(ConstantPoolScannerTest::isClassFile).sorted().collect(Collectors.toList());
+            }
+            for (Path file : files) {
+                classes.put(root.relativize(file).toString(), Files.readAllBytes(file));
+            }
+        } else try (ZipFile zipFile = new ZipFile(root.toFile())) {
+            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                final String name = entry.getName();
+                if (name.endsWith(".class") && ! name.endsWith("module-info.class")) {
+                    try (InputStream is = zipFile.getInputStream(entry)) {
+                        classes.put(name, readAll(is));
+                    }
+                }
+            }
+        }
+        return classes;
+    }
+
+    private static boolean isClassFile(final Path file) {
+        final String name = file.getFileName().toString();
+        return name.endsWith(".class") && ! name.equals("module-info.class");
+    }
+
+    private static byte[] readAll(final InputStream is) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int n;
+        while ((n = is.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Generates a synthetic module repository.  Modules are arranged in layers; each module depends on up to
+ * {@code fanOut} modules of lower layers, re-exports some of them, and contains classes which extend, implement
+ * and call into classes of some (but not all) of its dependencies.  The same parameters and seed always produce
+ * the same repository.
+ */
+public final class FixtureGenerator {
+    private final int modules;
+    private final int depth;
+    private final int fanOut;
+    private final int reexportPercent;
+    private final int classesPerModule;
+    private final long seed;
+
+    public FixtureGenerator(final int modules, final int depth, final int fanOut, final int reexportPercent, final int classesPerModule, final long seed) {
+        this.modules = modules;
+        this.depth = depth;
+        this.fanOut = fanOut;
+        this.reexportPercent = reexportPercent;
+        this.classesPerModule = classesPerModule;
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: FixtureGenerator <dir> [modules [depth [fan-out [re-export% [classes per module [seed]]]]]]");
+            System.exit(1);
+        }
+        final FixtureGenerator generator = new FixtureGenerator(
+            args.length > 1 ? Integer.parseInt(args[1]) : 600,
+            args.length > 2 ? Integer.parseInt(args[2]) : 8,
+            args.length > 3 ? Integer.parseInt(args[3]) : 6,
+            args.length > 4 ? Integer.parseInt(args[4]) : 20,
+            args.length > 5 ? Integer.parseInt(args[5]) : 40,
+            args.length > 6 ? Long.parseLong(args[6]) : 1L
+        );
+        generator.generate(Paths.get(args[0]));
+    }
+
+    static String moduleName(int layer, int index) {
+        return "bench.l" + layer + ".m" + index;
+    }
+
+    private int layerOf(int index) {
+        return (int) ((long) index * depth / modules);
+    }
+
+    /**
+     * Write the repository into the given directory.
+     *
+     * @param root the module repository root
+     * @throws IOException if writing failed
+     */
+    public void generate(final Path root) throws IOException {
+        final Random random = new Random(seed);
+        for (int i = 0; i < modules; i ++) {
+            final int layer = layerOf(i);
+            final String name = moduleName(layer, i);
+            final Path moduleDir = root.resolve(name.replace('.', '/')).resolve("main");
+            Files.createDirectories(moduleDir);
+            // pick dependencies from lower layers, mostly the one directly below
+            final Set<Integer> dependencies = new LinkedHashSet<>();
+            if (layer > 0) {
+                final int end = (int) ((long) layer * modules / depth);
+                final int prevStart = (int) ((long) (layer - 1) * modules / depth);
+                for (int j = 0; j < fanOut; j ++) {
+                    final int lo = random.nextInt(4) == 0 ? 0 : prevStart;
+                    dependencies.add(Integer.valueOf(lo + random.nextInt(end - lo)));
+                }
+            }
+            final List<String> used = new ArrayList<>();
+            try (Writer writer = Files.newBufferedWriter(moduleDir.resolve("module.xml"), StandardCharsets.UTF_8)) {
+                writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+                writer.write("<module xmlns=\"urn:jboss:module:1.5\" name=\"" + name + "\">\n");
+                writer.write("    <resources>\n        <resource-root path=\"classes\"/>\n    </resources>\n");
+                writer.write("    <dependencies>\n");
+                for (Integer dependency : dependencies) {
+                    final int index = dependency.intValue();
+                    final String dependencyName = moduleName(layerOf(index), index);
+                    final boolean export = random.nextInt(100) < reexportPercent;
+                    writer.write("        <module name=\"" + dependencyName + "\"" + (export ? " export=\"true\"" : "") + "/>\n");
+                    // leave roughly one in four dependencies unused
+                    if (random.nextInt(4) != 0) {
+                        used.add(packageName(dependencyName));
+                    }
+                }
+                writer.write("    </dependencies>\n</module>\n");
+            }
+            final String packageName = packageName(name);
+            final Path classesDir = moduleDir.resolve("classes").resolve(packageName);
+            Files.createDirectories(classesDir);
+            Files.write(classesDir.resolve("Api.class"), generateApi(packageName, used));
+            for (int k = 0; k < classesPerModule; k ++) {
+                final String superPackage = used.isEmpty() || k % 3 != 0 ? null : used.get(random.nextInt(used.size()));
+                final String ldc = random.nextInt(50) == 0 ? moduleName(0, random.nextInt(Math.max(1, modules / depth))) : null;
+                Files.write(classesDir.resolve("Impl" + k + ".class"), generateImpl(packageName, k, superPackage, used, ldc));
+            }
+        }
+    }
+
+    private static String packageName(String moduleName) {
+        return moduleName.replace('.', '/');
+    }
+
+    private static byte[] generateApi(final String packageName, final List<String> used) {
+        final ClassWriter cw = new ClassWriter(0);
+        final String[] interfaces = used.isEmpty() ? null : new String[] { used.get(0) + "/Api" };
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT | Opcodes.ACC_INTERFACE, packageName + "/Api", null, "java/lang/Object", interfaces);
+        final StringBuilder desc = new StringBuilder("(");
+        for (String dependency : used) {
+            desc.append('L').append(dependency).append("/Api;");
+        }
+        desc.append(")V");
+        cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "apply", desc.toString(), null, null).visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static byte[] generateImpl(final String packageName, final int k, final String superPackage, final List<String> used, final String ldc) {
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        final String superName = superPackage == null ? "java/lang/Object" : superPackage + "/Impl0";
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, packageName + "/Impl" + k, null, superName, new String[] { packageName + "/Api" });
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "run", "()V", null, null);
+        mv.visitCode();
+        for (String dependency : used) {
+            mv.visitTypeInsn(Opcodes.NEW, dependency + "/Impl" + (k % 2));
+            mv.visitInsn(Opcodes.DUP);
+            mv.visitMethodInsn(Opcodes.INVOKESPECIAL, dependency + "/Impl" + (k % 2), "<init>", "()V", false);
+            mv.visitFieldInsn(Opcodes.PUTSTATIC, packageName + "/Impl" + k, "last", "Ljava/lang/Object;");
+        }
+        if (ldc != null) {
+            mv.visitLdcInsn(ldc);
+            mv.visitInsn(Opcodes.POP);
+        }
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitField(Opcodes.ACC_STATIC, "last", "Ljava/lang/Object;", null, null).visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.jboss.modules.ModuleLoadException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Check the report over a repository generated by {@link FixtureGenerator} against the report of the original
+ * ASM-based, string-keyed indexer, which is kept in {@code fixture-report.txt}.  Lines are compared sorted, since
+ * the order of the unused dependencies of a module is not significant.
+ */
+public class FixtureReportTest {
+    private static Path workDir;
+
+    @BeforeClass
+    public static void generate() throws IOException {
+        workDir = Files.createTempDirectory("deptool-test");
+        new FixtureGenerator(200, 6, 5, 25, 8, 1L).generate(workDir.resolve("modules"));
+    }
+
+    @AfterClass
+    public static void delete() throws IOException {
+        if (workDir != null) {
+            final List<Path> paths = new ArrayList<>();
+            try (Stream<Path> stream = Files.walk(workDir)) {
+                stream.forEach(paths::add);
+            }
+            Collections.reverse(paths);
+            for (Path path : paths) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void testFull() throws Exception {
+        checkReport(ScanMode.FULL, 1, false);
+    }
+
+    @Test
+    public void testFast() throws Exception {
+        checkReport(ScanMode.FAST, 1, false);
+    }
+
+    @Test
+    public void testConstantPool() throws Exception {
+        checkReport(ScanMode.CONSTANT_POOL, 1, false);
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        checkReport(ScanMode.FULL, 4, false);
+    }
+
+    @Test
+    public void testCached() throws Exception {
+        // the first run fills the cache and the second is served from it
+        checkReport(ScanMode.FULL, 1, true);
+        checkReport(ScanMode.FULL, 1, true);
+    }
+
+    private static void checkReport(final ScanMode scanMode, final int threads, final boolean cached) throws IOException, ModuleLoadException {
+        final Analyzer analyzer = new Analyzer();
+        analyzer.setModuleRoots(workDir.resolve("modules"));
+        analyzer.setScanMode(scanMode);
+        analyzer.setThreads(threads);
+        if (cached) {
+            analyzer.setCachePath(workDir.resolve("cache"));
+        }
+        final StringWriter writer = new StringWriter();
+        analyzer.setReport(new ReportWriter(writer, ReportWriter.Format.TEXT));
+        analyzer.index();
+        analyzer.analyze();
+        final List<String> lines = new ArrayList<>(Arrays.asList(writer.toString().split("\\R")));
+        Collections.sort(lines);
+        assertEquals(readExpectedReport(), lines);
+    }
+
+    private static List<String> readExpectedReport() throws IOException {
+        final List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(FixtureReportTest.class.getResourceAsStream("fixture-report.txt"), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}
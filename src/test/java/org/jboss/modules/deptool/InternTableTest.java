@@ -0,0 +1,67 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Check that concurrent interning hands every thread the same instance of each string, whichever of the lookup
+ * forms added it.
+ */
+public class InternTableTest {
+    private static final int STRINGS = 50000;
+    private static final int ROUNDS = 10;
+
+    @Test
+    public void testConcurrentIntern() throws Exception {
+        final String[] strings = ConcurrentLookup.names(STRINGS);
+        for (int round = 0; round < ROUNDS; round++) {
+            final InternTable table = new InternTable();
+            final List<Object[]> results = ConcurrentLookup.run(STRINGS, round, new ConcurrentLookup.Lookup() {
+                public Object lookup(final int i, final Random random) {
+                    if (random.nextBoolean()) {
+                        return table.intern(new String(strings[i]));
+                    } else {
+                        final StringBuilder descriptor = new StringBuilder().append('L').append(strings[i]).append(';');
+                        return table.intern(descriptor, 1, descriptor.length() - 1);
+                    }
+                }
+            });
+            assertEquals(STRINGS, table.size());
+            for (int i = 0; i < STRINGS; i++) {
+                final String canonical = table.intern(strings[i]);
+                assertEquals(strings[i], canonical);
+                for (Object[] interned : results) {
+                    assertSame(strings[i], canonical, interned[i]);
+                }
+                assertTrue(strings[i], table.contains(new String(strings[i])));
+            }
+            assertEquals(STRINGS, table.size());
+            assertFalse(table.contains("org/example/Missing"));
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.jboss.modules.ModuleDependencySpec;
+import org.jboss.modules.ModuleDependencySpecBuilder;
+import org.junit.Test;
+
+/**
+ * Check the strongly connected components of {@link ModuleGraph}, and the cycles found from them, on a graph with
+ * a self-dependency, two cycles sharing a dependency, and a dependency chain long enough to overflow the stack of
+ * a recursive search.
+ */
+public class ModuleGraphTest {
+    private static final int CHAIN = 50000;
+
+    @Test
+    public void testComponents() throws Exception {
+        final Map<String, List<String>> dependencies = buildDependencies();
+        final List<String> names = new ArrayList<>(dependencies.keySet());
+        // the search starts from the first module, so try both a dependent and a dependency first
+        check(dependencies, names);
+        Collections.reverse(names);
+        check(dependencies, names);
+    }
+
+    private static void check(final Map<String, List<String>> dependencies, final List<String> names) throws Exception {
+        final RootIndex rootIndex = new RootIndex();
+        for (String name : names) {
+            final ModuleIndex moduleIndex = new ModuleIndex(rootIndex, name);
+            for (String dependency : dependencies.get(name)) {
+                moduleIndex.addDependency(new ModuleDependencySpecBuilder().setName(dependency).build());
+            }
+            rootIndex.addModuleIndex(moduleIndex);
+        }
+        Main.linkDependents(rootIndex, null, false, false, new LinkedHashMap<>());
+        final ModuleGraph graph = new ModuleGraph(rootIndex);
+
+        assertEquals(names.size(), graph.getModuleCount());
+        // self, the two cycles, shared, lonely, top and the chain
+        assertEquals(6 + CHAIN, graph.getComponentCount());
+        assertEquals(component(graph, "a1"), component(graph, "a2"));
+        assertEquals(component(graph, "a1"), component(graph, "a3"));
+        assertEquals(component(graph, "b1"), component(graph, "b2"));
+        // a dependency is completed first, whichever module the search starts from
+        assertTrue(component(graph, "shared") < component(graph, "a1"));
+        assertTrue(component(graph, "a1") < component(graph, "b1"));
+        assertTrue(component(graph, "c" + (CHAIN - 1)) < component(graph, "c0"));
+
+        for (int c = 0; c < graph.getComponentCount(); c++) {
+            for (int module : graph.getComponentModules(c)) {
+                assertEquals(c, graph.getComponent(module));
+            }
+        }
+        int edgeCount = 0;
+        for (int module = 0; module < graph.getModuleCount(); module++) {
+            final String name = graph.getModuleIndex(module).getName();
+            final Set<String> targets = new HashSet<>();
+            for (int edge = graph.getFirstEdge(module); edge < graph.getFirstEdge(module + 1); edge++) {
+                final int target = graph.getEdgeTarget(edge);
+                targets.add(graph.getModuleIndex(target).getName());
+                assertEquals(module, graph.getEdgeSource(edge));
+                assertEquals(graph.getModuleIndex(target).getName(), ((ModuleDependencySpec) graph.getEdgeSpec(edge)).getName());
+                // components are numbered in reverse topological order
+                assertTrue(name, graph.getComponent(target) <= graph.getComponent(module));
+                edgeCount++;
+            }
+            assertEquals(name, new HashSet<>(dependencies.get(name)), targets);
+        }
+        assertEquals(graph.getFirstEdge(graph.getModuleCount()), edgeCount);
+
+        final Map<Set<String>, ModuleCycle> cycles = new LinkedHashMap<>();
+        for (ModuleCycle cycle : Main.findCycles(graph)) {
+            cycles.put(new TreeSet<>(cycle.getModules()), cycle);
+        }
+        // a module by itself is only a cycle if it depends on itself
+        assertEquals(new HashSet<>(Arrays.asList(names("self"), names("a1", "a2", "a3"), names("b1", "b2"))), cycles.keySet());
+        assertEquals(Collections.singletonMap("self", Collections.singletonMap("self", Collections.emptyList())), cycles.get(names("self")).getDependencies());
+        assertEquals(names("a1 -> a2", "a2 -> a3", "a3 -> a1"), cycleDependencies(cycles.get(names("a1", "a2", "a3"))));
+        assertEquals(names("b1 -> b2", "b2 -> b1"), cycleDependencies(cycles.get(names("b1", "b2"))));
+    }
+
+    /**
+     * Build the graph.  Both cycles depend on {@code shared}, and {@code b2} depends on the other cycle, so the
+     * cycles are completed in that order.
+     */
+    private static Map<String, List<String>> buildDependencies() {
+        final Map<String, List<String>> dependencies = new LinkedHashMap<>();
+        dependencies.put("top", Arrays.asList("b1", "self"));
+        dependencies.put("self", Arrays.asList("self", "shared"));
+        dependencies.put("a1", Arrays.asList("a2"));
+        dependencies.put("a2", Arrays.asList("a3", "shared"));
+        dependencies.put("a3", Arrays.asList("a1"));
+        dependencies.put("b1", Arrays.asList("b2", "shared"));
+        dependencies.put("b2", Arrays.asList("b1", "a1"));
+        dependencies.put("shared", Arrays.asList("c0"));
+        dependencies.put("lonely", Collections.<String>emptyList());
+        for (int i = 0; i < CHAIN; i++) {
+            dependencies.put("c" + i, i + 1 < CHAIN ? Collections.singletonList("c" + (i + 1)) : Collections.<String>emptyList());
+        }
+        return dependencies;
+    }
+
+    private static int component(final ModuleGraph graph, final String name) {
+        return graph.getComponent(graph.getId(name));
+    }
+
+    private static Set<String> names(final String... names) {
+        return new TreeSet<>(Arrays.asList(names));
+    }
+
+    private static Set<String> cycleDependencies(final ModuleCycle cycle) {
+        final Set<String> edges = new TreeSet<>();
+        for (Map.Entry<String, Map<String, List<String>>> entry : cycle.getDependencies().entrySet()) {
+            for (String dependency : entry.getValue().keySet()) {
+                edges.add(entry.getKey() + " -> " + dependency);
+            }
+        }
+        return edges;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import nu.xom.Builder;
+import nu.xom.Comment;
+import nu.xom.Document;
+import nu.xom.Element;
+import nu.xom.Elements;
+import nu.xom.Node;
+import nu.xom.Text;
+import org.junit.Test;
+
+/**
+ * Check the exact output of {@link ModuleXmlPatcher}, and check that it removes the same dependencies as the
+ * original XOM-based fixer, which is kept here as {@link #removeWithXom(String, Set)}.
+ */
+public class ModuleXmlPatcherTest {
+
+    @Test
+    public void testKeep() throws Exception {
+        check("<module xmlns=\"urn:jboss:module:1.5\" name=\"a\">\n" +
+                "    <dependencies>\n" +
+                "        <!-- keep -->\n" +
+                "        <module name=\"b\"/>\n" +
+                "        <!-- Keep -->\n" +
+                "        <?note not an element?>\n" +
+                "        <module name=\"c\"/>\n" +
+                "        <module name=\"d\"/>\n" +
+                "    </dependencies>\n" +
+                "</module>\n",
+            names("b", "c", "d"),
+            "<module xmlns=\"urn:jboss:module:1.5\" name=\"a\">\n" +
+                "    <dependencies>\n" +
+                "        <!-- keep -->\n" +
+                "        <module name=\"b\"/>\n" +
+                "        <!-- Keep -->\n" +
+                "        <?note not an element?>\n" +
+                "        <module name=\"c\"/>\n" +
+                "    </dependencies>\n" +
+                "</module>\n",
+            1, 2,
+            "Explicitly preserving dependency b in module.xml",
+            "Explicitly preserving dependency c in module.xml");
+    }
+
+    @Test
+    public void testLeadingCommentsAndText() throws Exception {
+        check("<module xmlns=\"urn:jboss:module:1.5\" name=\"a\">\n" +
+                "    <dependencies>\n" +
+                "        <module name=\"b\"/>\n" +
+                "        <!-- for the old API -->\n" +
+                "        <!-- until 2.0 -->\n" +
+                "        <module name=\"c\"/>\n" +
+                "        stray <module name=\"d\"/>\n" +
+                "        <?note not a comment?>\n" +
+                "        <module name=\"e\"/>\n" +
+                "    </dependencies>\n" +
+                "</module>\n",
+            names("c", "d", "e"),
+            "<module xmlns=\"urn:jboss:module:1.5\" name=\"a\">\n" +
+                "    <dependencies>\n" +
+                "        <module name=\"b\"/>\n" +
+                "        <?note not a comment?>\n" +
+                "    </dependencies>\n" +
+                "</module>\n",
+            3, 0,
+            "Removed extra text around dependency d in module.xml");
+    }
+
+    @Test
+    public void testCdataDoctypeAndPrefix() throws Exception {
+        check("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<!DOCTYPE m:module [\n" +
+                "    <!ELEMENT m:dependencies ANY>\n" +
+                "    <!ATTLIST m:module note CDATA \"a ] > b\">\n" +
+                "]>\n" +
+                "<m:module xmlns:m=\"urn:jboss:module:1.5\" name=\"a\">\n" +
+                "    <m:dependencies>\n" +
+                "        <![CDATA[ <m:module name=\"fake\"/> ]]>\n" +
+                "        <m:module name=\"b\"/>\n" +
+                "        <module name=\"c\"/>\n" +
+                "        <m:module name=\"d\"/>\n" +
+                "    </m:dependencies>\n" +
+                "</m:module>\n",
+            names("b", "c", "d", "fake"),
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<!DOCTYPE m:module [\n" +
+                "    <!ELEMENT m:dependencies ANY>\n" +
+                "    <!ATTLIST m:module note CDATA \"a ] > b\">\n" +
+                "]>\n" +
+                "<m:module xmlns:m=\"urn:jboss:module:1.5\" name=\"a\">\n" +
+                "    <m:dependencies>\n" +
+                "        <module name=\"c\"/>\n" +
+                "    </m:dependencies>\n" +
+                "</m:module>\n",
+            2, 0,
+            "Removed extra text around dependency b in module.xml");
+    }
+
+    @Test
+    public void testChildrenAndQuotes() throws Exception {
+        check("<module xmlns='urn:jboss:module:1.5' name='a'>\n" +
+                "    <dependencies>\n" +
+                "        <module name='b' export='true'>\n" +
+                "            <imports>\n" +
+                "                <include path=\"META-INF\"/>\n" +
+                "            </imports>\n" +
+                "        </module>\n" +
+                "        <system export=\"true\">\n" +
+                "            <paths>\n" +
+                "                <path name=\"c\"/>\n" +
+                "            </paths>\n" +
+                "        </system>\n" +
+                "        <module name = 'c' services=\"import\"/>\n" +
+                "        <module name=\"it's\"></module>\n" +
+                "    </dependencies>\n" +
+                "</module>\n",
+            names("b", "c", "it's"),
+            "<module xmlns='urn:jboss:module:1.5' name='a'>\n" +
+                "    <dependencies>\n" +
+                "        <system export=\"true\">\n" +
+                "            <paths>\n" +
+                "                <path name=\"c\"/>\n" +
+                "            </paths>\n" +
+                "        </system>\n" +
+                "    </dependencies>\n" +
+                "</module>\n",
+            3, 0);
+    }
+
+    @Test
+    public void testEncodedNames() throws Exception {
+        check("<module xmlns=\"urn:jboss:module:1.5\" name=\"a\">\n" +
+                "    <dependencies>\n" +
+                "        <module name=\"org.example.&quot;q&quot;\"/>\n" +
+                "        <module name=\"org.example.&#97;mp\"/>\n" +
+                "        <module name=\"org.example.&#x41;\"/>\n" +
+                "        <module name=\"a&amp;b&lt;c&gt;&apos;\"/>\n" +
+                "        <module name=\"org.example.&amp;#98;\"/>\n" +
+                "    </dependencies>\n" +
+                "</module>\n",
+            names("org.example.\"q\"", "org.example.amp", "a&b<c>'", "org.example.&#98;", "org.example.b"),
+            "<module xmlns=\"urn:jboss:module:1.5\" name=\"a\">\n" +
+                "    <dependencies>\n" +
+                "        <module name=\"org.example.&#x41;\"/>\n" +
+                "    </dependencies>\n" +
+                "</module>\n",
+            4, 0);
+    }
+
+    @Test
+    public void testUnchanged() throws Exception {
+        final List<String> warnings = new ArrayList<>();
+        final byte[] noDependencies = "<module xmlns=\"urn:jboss:module:1.5\" name=\"a\"/>\n".getBytes(StandardCharsets.UTF_8);
+        assertSame(noDependencies, new ModuleXmlPatcher(noDependencies, "module.xml", warnings).removeDependencies(names("b")));
+        assertEquals(Arrays.asList("Unexpected missing <dependencies> element"), warnings);
+        final byte[] unused = "<module xmlns=\"urn:jboss:module:1.5\" name=\"a\"><dependencies><module name=\"b\"/></dependencies></module>".getBytes(StandardCharsets.UTF_8);
+        assertSame(unused, new ModuleXmlPatcher(unused, "module.xml", warnings).removeDependencies(names("c")));
+        assertEquals(1, warnings.size());
+    }
+
+    private static void check(final String input, final Set<String> names, final String expected, final int removed, final int kept, final String... expectedWarnings) throws Exception {
+        final List<String> warnings = new ArrayList<>();
+        final ModuleXmlPatcher patcher = new ModuleXmlPatcher(input.getBytes(StandardCharsets.UTF_8), "module.xml", warnings);
+        final String output = new String(patcher.removeDependencies(names), StandardCharsets.UTF_8);
+        assertEquals(expected, output);
+        assertEquals(Arrays.asList(expectedWarnings), warnings);
+        assertEquals(removed, patcher.getRemovedCount());
+        assertEquals(kept, patcher.getKeptCount());
+        assertEquals(removeWithXom(input, names), moduleNames(getDependencies(parse(output))));
+    }
+
+    private static Set<String> names(final String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+
+    private static Document parse(final String xml) throws Exception {
+        return new Builder(false).build(new StringReader(xml));
+    }
+
+    private static Element getDependencies(final Document document) {
+        final Element rootElement = document.getRootElement();
+        return rootElement.getFirstChildElement("dependencies", rootElement.getNamespaceURI());
+    }
+
+    private static List<String> moduleNames(final Element dependenciesElement) {
+        final Elements dependencyElements = dependenciesElement.getChildElements("module", dependenciesElement.getNamespaceURI());
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < dependencyElements.size(); i ++) {
+            names.add(dependencyElements.get(i).getAttributeValue("name"));
+        }
+        return names;
+    }
+
+    /**
+     * Remove dependencies the way the fixer did before {@link ModuleXmlPatcher}, and get the remaining ones.
+     */
+    private static List<String> removeWithXom(final String input, final Collection<String> names) throws Exception {
+        final Element dependenciesElement = getDependencies(parse(input));
+        final Elements dependencyElements = dependenciesElement.getChildElements("module", dependenciesElement.getNamespaceURI());
+        dep: for (int i = 0; i < dependencyElements.size(); i ++) {
+            final Element dependencyElement = dependencyElements.get(i);
+            if (! names.contains(dependencyElement.getAttributeValue("name"))) continue;
+            int idx = dependenciesElement.indexOf(dependencyElement);
+            for (int fi = idx - 1; fi >= 0; fi --) {
+                final Node sibling = dependenciesElement.getChild(fi);
+                if (sibling instanceof Comment && sibling.getValue().trim().toLowerCase(Locale.ROOT).equals("keep")) {
+                    continue dep;
+                } else if (sibling instanceof Element) {
+                    break;
+                }
+            }
+            dependenciesElement.removeChild(idx);
+            while (idx > 0) {
+                idx --;
+                final Node sibling = dependenciesElement.getChild(idx);
+                if (sibling instanceof Comment || sibling instanceof Text) {
+                    dependenciesElement.removeChild(idx);
+                } else {
+                    break;
+                }
+            }
+        }
+        return moduleNames(dependenciesElement);
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.jboss.modules.DependencySpec;
+import org.jboss.modules.ModuleDependencySpec;
+import org.jboss.modules.ModuleDependencySpecBuilder;
+import org.jboss.modules.filter.PathFilter;
+import org.jboss.modules.filter.PathFilters;
+import org.junit.Test;
+
+/**
+ * Check {@link PathPropagator} against the path enumeration it replaced, on random module graphs with cycles and
+ * with dependencies declared more than once.
+ */
+public class PathPropagatorTest {
+    private static final int GRAPHS = 500;
+    private static final int MODULES = 12;
+
+    private static final PathFilter EVEN_HASH = path -> (path.hashCode() & 1) == 0;
+
+    @Test
+    public void testRandomGraphs() {
+        for (long seed = 0; seed < GRAPHS; seed++) {
+            final RootIndex rootIndex = buildGraph(seed);
+            final Reference reference = new Reference();
+            for (ModuleIndex moduleIndex : rootIndex.getModules().values()) {
+                reference.processDependents(moduleIndex.getIncludedPackages(), moduleIndex, new HashSet<>());
+            }
+            new PathPropagator(rootIndex).propagate();
+            for (ModuleIndex moduleIndex : rootIndex.getModules().values()) {
+                final String message = "graph " + seed + ", module " + moduleIndex.getName();
+                final Map<String, Set<String>> expectedPaths = new TreeMap<>();
+                final Map<String, Set<String>> actualPaths = new TreeMap<>();
+                final Set<String> expectedExports = new TreeSet<>();
+                final Set<String> actualExports = new TreeSet<>();
+                for (ModuleIndex dependency : rootIndex.getModules().values()) {
+                    final Set<String> expected = reference.getPathsByDependency(moduleIndex, dependency);
+                    if (! expected.isEmpty()) {
+                        expectedPaths.put(dependency.getName(), new TreeSet<>(expected));
+                    }
+                    final Collection<String> actual = moduleIndex.getPathsByDependency(dependency);
+                    if (! actual.isEmpty()) {
+                        actualPaths.put(dependency.getName(), new TreeSet<>(actual));
+                    }
+                    if (reference.exports(moduleIndex, dependency)) {
+                        expectedExports.add(dependency.getName());
+                    }
+                    if (moduleIndex.exports(dependency)) {
+                        actualExports.add(dependency.getName());
+                    }
+                }
+                assertEquals(message, expectedPaths, actualPaths);
+                assertEquals(message, expectedExports, actualExports);
+                assertEquals(message, reference.getDependencyPaths(moduleIndex), new TreeSet<>(moduleIndex.getDependencyPaths()));
+            }
+        }
+    }
+
+    /**
+     * Build a random graph.  Modules may depend on any module, including one depending on them, and may declare
+     * the same dependency twice with different filters.
+     */
+    private static RootIndex buildGraph(final long seed) {
+        final Random random = new Random(seed);
+        final RootIndex rootIndex = new RootIndex();
+        final List<ModuleIndex> modules = new ArrayList<>();
+        for (int i = 0; i < MODULES; i++) {
+            final ModuleIndex moduleIndex = new ModuleIndex(rootIndex, "m" + i);
+            for (int k = random.nextInt(3); k > 0; k--) {
+                final ClassIndex classIndex = new ClassIndex(moduleIndex);
+                classIndex.setName("p" + i + "x" + k + "/C");
+                classIndex.setInterfaceNames(new String[0]);
+                moduleIndex.addClassIndex(classIndex);
+            }
+            rootIndex.addModuleIndex(moduleIndex);
+            modules.add(moduleIndex);
+        }
+        for (ModuleIndex moduleIndex : modules) {
+            for (int k = random.nextInt(4); k > 0; k--) {
+                final ModuleIndex dependency = modules.get(random.nextInt(MODULES));
+                if (dependency == moduleIndex) {
+                    continue;
+                }
+                final int copies = random.nextInt(5) == 0 ? 2 : 1;
+                for (int c = 0; c < copies; c++) {
+                    moduleIndex.addDependency(new ModuleDependencySpecBuilder()
+                        .setName(dependency.getName())
+                        .setImportFilter(random.nextInt(3) == 0 ? EVEN_HASH : PathFilters.acceptAll())
+                        .setExportFilter(random.nextInt(3) == 0 ? PathFilters.acceptAll() : PathFilters.rejectAll())
+                        .build());
+                }
+            }
+        }
+        for (ModuleIndex moduleIndex : modules) {
+            for (DependencySpec dependencySpec : moduleIndex.getDependencySpecs()) {
+                rootIndex.getModule(((ModuleDependencySpec) dependencySpec).getName()).addDependent(new DependentInfo(moduleIndex, dependencySpec));
+            }
+        }
+        return rootIndex;
+    }
+
+    /**
+     * The stage 3 algorithm which {@link PathPropagator} replaced: every simple path through the dependent graph is
+     * walked, filtering the packages at each hop.  As documented when it was replaced, it could skip an edge which
+     * repeats a dependency declared before, because the packages were already mapped; a repeated declaration is
+     * always applied here, as it is by the propagator.
+     */
+    static final class Reference {
+        private final Map<ModuleIndex, Map<ModuleIndex, Set<String>>> pathsByDependency = new HashMap<>();
+        private final Map<ModuleIndex, Set<ModuleIndex>> exports = new HashMap<>();
+
+        void processDependents(final Collection<String> remainingPaths, final ModuleIndex moduleIndex, final Set<ModuleIndex> visited) {
+            if (visited.add(moduleIndex)) try {
+                for (DependentInfo dependentInfo : moduleIndex.getDependents()) {
+                    final DependencySpec dependencySpec = dependentInfo.getIncomingDependencySpec();
+                    final ModuleIndex dependent = dependentInfo.getDependentModuleIndex();
+                    final List<String> imported = filteredCopy(remainingPaths, dependencySpec.getImportFilter());
+                    if (imported.isEmpty()) {
+                        continue;
+                    }
+                    if (mapDependencyPackages(dependent, imported, moduleIndex) == 0 && ! isRepeated(dependent, moduleIndex)) {
+                        continue;
+                    }
+                    final List<String> exported = filteredCopy(imported, dependencySpec.getExportFilter());
+                    if (exported.isEmpty()) {
+                        continue;
+                    }
+                    exports.computeIfAbsent(dependent, k -> new HashSet<>()).add(moduleIndex);
+                    processDependents(exported, dependent, visited);
+                }
+            } finally {
+                visited.remove(moduleIndex);
+            }
+        }
+
+        private int mapDependencyPackages(final ModuleIndex dependent, final Collection<String> paths, final ModuleIndex dependency) {
+            final Set<String> set = pathsByDependency.computeIfAbsent(dependent, k -> new HashMap<>()).computeIfAbsent(dependency, k -> new HashSet<>());
+            int cnt = 0;
+            for (String path : paths) {
+                if (set.add(path)) {
+                    cnt++;
+                }
+            }
+            return cnt;
+        }
+
+        private static boolean isRepeated(final ModuleIndex dependent, final ModuleIndex dependency) {
+            int count = 0;
+            for (DependencySpec dependencySpec : dependent.getDependencySpecs()) {
+                if (((ModuleDependencySpec) dependencySpec).getName().equals(dependency.getName())) {
+                    count++;
+                }
+            }
+            return count > 1;
+        }
+
+        private static List<String> filteredCopy(final Collection<String> paths, final PathFilter filter) {
+            final List<String> copy = new ArrayList<>();
+            for (String path : paths) {
+                if (filter.accept(path)) {
+                    copy.add(path);
+                }
+            }
+            return copy;
+        }
+
+        Set<String> getPathsByDependency(final ModuleIndex dependent, final ModuleIndex dependency) {
+            final Map<ModuleIndex, Set<String>> map = pathsByDependency.get(dependent);
+            final Set<String> set = map == null ? null : map.get(dependency);
+            return set == null ? new HashSet<>() : set;
+        }
+
+        Set<String> getDependencyPaths(final ModuleIndex dependent) {
+            final Set<String> paths = new TreeSet<>();
+            final Map<ModuleIndex, Set<String>> map = pathsByDependency.get(dependent);
+            if (map != null) {
+                for (Set<String> set : map.values()) {
+                    paths.addAll(set);
+                }
+            }
+            return paths;
+        }
+
+        boolean exports(final ModuleIndex dependent, final ModuleIndex dependency) {
+            final Set<ModuleIndex> set = exports.get(dependent);
+            return set != null && set.contains(dependency);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.jboss.modules.ModuleDependencySpecBuilder;
+import org.junit.Test;
+
+/**
+ * Check {@link ReachabilityIndex} against a breadth first search from every module, on random module graphs with
+ * and without cycles.
+ */
+public class ReachabilityIndexTest {
+    private static final int GRAPHS = 200;
+    private static final int MODULES = 15;
+
+    @Test
+    public void testAcyclicGraphs() throws Exception {
+        for (long seed = 0; seed < GRAPHS; seed++) {
+            check(seed, false);
+        }
+    }
+
+    @Test
+    public void testCyclicGraphs() throws Exception {
+        for (long seed = 0; seed < GRAPHS; seed++) {
+            check(seed, true);
+        }
+    }
+
+    private static void check(final long seed, final boolean cyclic) throws Exception {
+        final RootIndex rootIndex = buildGraph(seed, cyclic);
+        final ReachabilityIndex reachabilityIndex = new ReachabilityIndex(new ModuleGraph(rootIndex));
+        final Map<String, List<String>> dependencies = new HashMap<>();
+        for (ModuleIndex moduleIndex : rootIndex.getModules().values()) {
+            for (DependentInfo dependentInfo : moduleIndex.getDependents()) {
+                dependencies.computeIfAbsent(dependentInfo.getDependentModuleIndex().getName(), k -> new ArrayList<>()).add(moduleIndex.getName());
+            }
+        }
+        for (String from : rootIndex.getModules().keySet()) {
+            // the length of the shortest path to each reachable module
+            final Map<String, Integer> distances = new HashMap<>();
+            final ArrayDeque<String> queue = new ArrayDeque<>();
+            distances.put(from, Integer.valueOf(0));
+            queue.add(from);
+            String module;
+            while ((module = queue.poll()) != null) {
+                for (String dependency : dependencies.getOrDefault(module, Collections.emptyList())) {
+                    if (! distances.containsKey(dependency)) {
+                        distances.put(dependency, Integer.valueOf(distances.get(module).intValue() + 1));
+                        queue.add(dependency);
+                    }
+                }
+            }
+            final String message = "graph " + seed + (cyclic ? " (cyclic)" : "") + ", from " + from;
+            assertEquals(message, new TreeSet<>(distances.keySet()), new TreeSet<>(reachabilityIndex.getReachableModules(from)));
+            for (String to : rootIndex.getModules().keySet()) {
+                final String pairMessage = message + " to " + to;
+                final Integer distance = distances.get(to);
+                assertEquals(pairMessage, distance != null, reachabilityIndex.canReach(from, to));
+                final List<String> path = reachabilityIndex.getShortestPath(from, to);
+                final List<String> why = reachabilityIndex.why(from, to);
+                if (distance == null) {
+                    assertTrue(pairMessage, path.isEmpty());
+                    assertTrue(pairMessage, why.isEmpty());
+                    continue;
+                }
+                assertEquals(pairMessage, distance.intValue() + 1, path.size());
+                assertEquals(pairMessage, from, path.get(0));
+                assertEquals(pairMessage, to, path.get(path.size() - 1));
+                if (from.equals(to)) {
+                    assertEquals(pairMessage, Collections.singletonList(from + " is the module itself"), why);
+                    continue;
+                }
+                assertEquals(pairMessage, path.size() - 1, why.size());
+                for (int i = 1; i < path.size(); i++) {
+                    assertTrue(pairMessage + " via " + path, dependencies.get(path.get(i - 1)).contains(path.get(i)));
+                    assertTrue(pairMessage + " why " + why, why.get(i - 1).startsWith(path.get(i - 1) + " depends on " + path.get(i)));
+                }
+            }
+        }
+        assertFalse(reachabilityIndex.canReach("m0", "missing"));
+        assertTrue(reachabilityIndex.why("missing", "m0").isEmpty());
+    }
+
+    /**
+     * Build a random graph.  In an acyclic graph, modules only depend on modules with a lower number; otherwise
+     * they may depend on any module, including themselves.
+     */
+    private static RootIndex buildGraph(final long seed, final boolean cyclic) throws Exception {
+        final Random random = new Random(seed);
+        final RootIndex rootIndex = new RootIndex();
+        final List<ModuleIndex> modules = new ArrayList<>();
+        for (int i = 0; i < MODULES; i++) {
+            final ModuleIndex moduleIndex = new ModuleIndex(rootIndex, "m" + i);
+            rootIndex.addModuleIndex(moduleIndex);
+            modules.add(moduleIndex);
+        }
+        for (int i = 0; i < MODULES; i++) {
+            final int bound = cyclic ? MODULES : i;
+            for (int k = bound == 0 ? 0 : random.nextInt(4); k > 0; k--) {
+                modules.get(i).addDependency(new ModuleDependencySpecBuilder()
+                    .setName("m" + random.nextInt(bound))
+                    .setOptional(random.nextInt(4) == 0)
+                    .build());
+            }
+        }
+        Main.linkDependents(rootIndex, null, false, false, new LinkedHashMap<>());
+        return rootIndex;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Check that concurrent ID assignment gives each name exactly one ID, that the IDs are dense, and that a racing
+ * lookup never sees an ID before the name behind it.
+ */
+public class SymbolTableTest {
+    private static final int NAMES = 20000;
+    private static final int ROUNDS = 10;
+
+    @Test
+    public void testConcurrentGetId() throws Exception {
+        final String[] names = ConcurrentLookup.names(NAMES);
+        for (int round = 0; round < ROUNDS; round++) {
+            final SymbolTable table = new SymbolTable();
+            final List<Object[]> results = ConcurrentLookup.run(NAMES, round, new ConcurrentLookup.Lookup() {
+                public Object lookup(final int i, final Random random) {
+                    final int id;
+                    if (random.nextBoolean()) {
+                        id = table.getId(new String(names[i]), i);
+                    } else {
+                        final String descriptor = "L" + names[i] + ";";
+                        id = table.getId(descriptor, 1, descriptor.length() - 1, i);
+                    }
+                    // the slot is published after the name, and IDs are assigned in order
+                    final int found = table.findId(names[random.nextInt(NAMES)]);
+                    if (found != -1) {
+                        assertNotNull(table.getName(found));
+                        assertTrue(found == 0 || table.getName(found - 1) != null);
+                    }
+                    return id;
+                }
+            });
+            assertEquals(NAMES, table.size());
+            final boolean[] seen = new boolean[NAMES];
+            for (int i = 0; i < NAMES; i++) {
+                final int id = table.findId(names[i]);
+                assertTrue(names[i], id >= 0 && id < NAMES && ! seen[id]);
+                seen[id] = true;
+                assertEquals(names[i], table.getName(id));
+                assertEquals(i, table.getTag(id));
+                final String descriptor = "[L" + names[i] + ";";
+                assertEquals(id, table.findId(descriptor, 2, descriptor.length() - 1));
+                for (Object[] ids : results) {
+                    assertEquals(names[i], Integer.valueOf(id), ids[i]);
+                }
+            }
+            assertEquals(-1, table.findId("org/example/Missing"));
+        }
+    }
+}
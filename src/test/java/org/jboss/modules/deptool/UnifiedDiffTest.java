@@ -0,0 +1,196 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.modules.deptool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * Check {@link UnifiedDiff} against the output of GNU {@code diff -u}, and check that random diffs apply back to
+ * the new text.
+ */
+public class UnifiedDiffTest {
+    private static final Pattern HUNK = Pattern.compile("@@ -(\\d+)(?:,(\\d+))? \\+(\\d+)(?:,(\\d+))? @@\n");
+    private static final String HEADER = "--- a/module.xml\n+++ b/module.xml\n";
+
+    @Test
+    public void testMergedHunk() {
+        // six common lines between two changes are shown once, in a single hunk
+        check("1\n2\n3\n4\n5\n6\n7\n8\n9\n10\n11\n12\n",
+            "1\n2\nX\n4\n5\n6\n7\n8\n9\nY\n11\n12\n",
+            "@@ -1,12 +1,12 @@\n 1\n 2\n-3\n+X\n 4\n 5\n 6\n 7\n 8\n 9\n-10\n+Y\n 11\n 12\n");
+    }
+
+    @Test
+    public void testSplitHunks() {
+        // seven are not
+        check("1\n2\n3\n4\n5\n6\n7\n8\n9\n10\n11\n12\n",
+            "1\n2\nX\n4\n5\n6\n7\n8\n9\n10\nY\n12\n",
+            "@@ -1,6 +1,6 @@\n 1\n 2\n-3\n+X\n 4\n 5\n 6\n@@ -8,5 +8,5 @@\n 8\n 9\n 10\n-11\n+Y\n 12\n");
+    }
+
+    @Test
+    public void testEmptyRange() {
+        check("", "a\nb\n", "@@ -0,0 +1,2 @@\n+a\n+b\n");
+        check("a\nb\n", "", "@@ -1,2 +0,0 @@\n-a\n-b\n");
+    }
+
+    @Test
+    public void testNoNewlineAtEnd() {
+        check("a\nb", "a\nc", "@@ -1,2 +1,2 @@\n a\n-b\n\\ No newline at end of file\n+c\n\\ No newline at end of file\n");
+        check("a\nb", "a\nb\n", "@@ -1,2 +1,2 @@\n a\n-b\n\\ No newline at end of file\n+b\n");
+        check("a\nb\nc\nd\ne", "A\nb\nc\nd\ne\n", "@@ -1,5 +1,5 @@\n-a\n+A\n b\n c\n d\n-e\n\\ No newline at end of file\n+e\n");
+        check("a\nb\nc\nd\ne", "A\nb\nc\nd\ne", "@@ -1,4 +1,4 @@\n-a\n+A\n b\n c\n d\n");
+    }
+
+    @Test
+    public void testUnchanged() {
+        final StringBuilder b = new StringBuilder();
+        UnifiedDiff.appendDiff(b, "module.xml", "a\nb", "a\nb");
+        assertEquals("", b.toString());
+    }
+
+    @Test
+    public void testRandomApply() {
+        final Random random = new Random(1);
+        for (int n = 0; n < 5000; n ++) {
+            final List<String> oldLines = new ArrayList<>();
+            final int size = random.nextInt(30);
+            for (int i = 0; i < size; i ++) {
+                oldLines.add(String.valueOf((char) ('a' + random.nextInt(5))));
+            }
+            // a few scattered edits, so that some are merged into one hunk and some are not
+            final List<String> newLines = new ArrayList<>(oldLines);
+            final int edits = random.nextInt(4);
+            for (int e = 0; e < edits; e ++) {
+                final int at = random.nextInt(newLines.size() + 1);
+                switch (random.nextInt(3)) {
+                    case 0: newLines.add(at, "+" + e); break;
+                    case 1: if (at < newLines.size()) newLines.remove(at); break;
+                    default: if (at < newLines.size()) newLines.set(at, "~" + e); break;
+                }
+            }
+            final String oldText = join(oldLines, random.nextBoolean());
+            final String newText = join(newLines, random.nextBoolean());
+            final StringBuilder b = new StringBuilder();
+            UnifiedDiff.appendDiff(b, "module.xml", oldText, newText);
+            final String message = oldText + "\n=>\n" + newText + "\n" + b;
+            if (oldText.equals(newText)) {
+                assertEquals(message, "", b.toString());
+            } else {
+                assertEquals(message, newText, apply(oldText, b.toString()));
+            }
+        }
+    }
+
+    private static void check(final String oldText, final String newText, final String expectedHunks) {
+        final StringBuilder b = new StringBuilder();
+        UnifiedDiff.appendDiff(b, "module.xml", oldText, newText);
+        assertEquals(HEADER + expectedHunks, b.toString());
+        assertEquals(newText, apply(oldText, b.toString()));
+    }
+
+    private static String join(final List<String> lines, final boolean newlineAtEnd) {
+        final StringBuilder b = new StringBuilder();
+        for (String line : lines) {
+            b.append(line).append('\n');
+        }
+        if (! newlineAtEnd && b.length() > 0) {
+            b.setLength(b.length() - 1);
+        }
+        return b.toString();
+    }
+
+    /**
+     * Apply a unified diff of one file the way {@code patch} does, but without any fuzz: every context and removed
+     * line, and the line counts and positions in the hunk headers, must match exactly.
+     */
+    private static String apply(final String oldText, final String patch) {
+        final List<String> oldLines = lines(oldText);
+        final List<String> patchLines = lines(patch);
+        assertTrue(patch, patch.startsWith(HEADER));
+        final StringBuilder out = new StringBuilder();
+        int outLines = 0;
+        int oi = 0;
+        int pi = 2;
+        while (pi < patchLines.size()) {
+            final Matcher matcher = HUNK.matcher(patchLines.get(pi ++));
+            assertTrue(patch, matcher.matches());
+            final int oldCount = matcher.group(2) == null ? 1 : Integer.parseInt(matcher.group(2));
+            final int newCount = matcher.group(4) == null ? 1 : Integer.parseInt(matcher.group(4));
+            // an empty range is given by the line before it
+            final int oldStart = Integer.parseInt(matcher.group(1)) - (oldCount == 0 ? 0 : 1);
+            final int newStart = Integer.parseInt(matcher.group(3)) - (newCount == 0 ? 0 : 1);
+            assertTrue(patch, oldStart >= oi);
+            while (oi < oldStart) {
+                out.append(oldLines.get(oi ++));
+                outLines ++;
+            }
+            assertEquals(patch, newStart, outLines);
+            int oldSeen = 0, newSeen = 0;
+            while (pi < patchLines.size() && ! patchLines.get(pi).startsWith("@@")) {
+                final String patchLine = patchLines.get(pi ++);
+                String line = patchLine.substring(1);
+                if (pi < patchLines.size() && patchLines.get(pi).equals("\\ No newline at end of file\n")) {
+                    pi ++;
+                    line = line.substring(0, line.length() - 1);
+                }
+                final char kind = patchLine.charAt(0);
+                if (kind == ' ' || kind == '-') {
+                    assertEquals(patch, oldLines.get(oi ++), line);
+                    oldSeen ++;
+                }
+                if (kind == ' ' || kind == '+') {
+                    out.append(line);
+                    outLines ++;
+                    newSeen ++;
+                }
+                assertTrue(patch, kind == ' ' || kind == '-' || kind == '+');
+            }
+            assertEquals(patch, oldCount, oldSeen);
+            assertEquals(patch, newCount, newSeen);
+        }
+        while (oi < oldLines.size()) {
+            out.append(oldLines.get(oi ++));
+        }
+        return out.toString();
+    }
+
+    private static List<String> lines(final String text) {
+        final List<String> lines = new ArrayList<>();
+        int start = 0;
+        int idx;
+        while ((idx = text.indexOf('\n', start)) != -1) {
+            lines.add(text.substring(start, idx + 1));
+            start = idx + 1;
+        }
+        if (start < text.length()) {
+            lines.add(text.substring(start));
+        }
+        return lines;
+    }
+}